@@ -1,6 +1,13 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 interface Cache <K,V> {
     public V getValue(K key);
@@ -31,12 +38,306 @@ class CacheImpl <K,V> implements Cache <K,V> {
     }
 };
 
+// Turns values into bytes and back for caches that keep values outside the Java heap
+interface ValueCodec <V> {
+    public byte[] encode(V value);
+
+    public V decode(byte[] bytes);
+};
+
+class StringValueCodec implements ValueCodec <String> {
+    @Override
+    public byte[] encode(String value) {
+        return value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+};
+
+// Point-in-time view of an OffHeapCache arena
+class ArenaStats {
+    private final int entries;
+    private final int slabs;
+    private final long reservedBytes;
+    private final long allocatedBytes;
+    private final long payloadBytes;
+
+    public ArenaStats(int entries, int slabs, long reservedBytes, long allocatedBytes, long payloadBytes) {
+        this.entries = entries;
+        this.slabs = slabs;
+        this.reservedBytes = reservedBytes;
+        this.allocatedBytes = allocatedBytes;
+        this.payloadBytes = payloadBytes;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public int getSlabs() {
+        return slabs;
+    }
+
+    // Off-heap memory held by the arena
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    // Bytes of chunks currently handed out, including size class rounding
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    // Bytes of encoded values actually stored
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "entries=" + entries + ", slabs=" + slabs + ", reserved=" + reservedBytes + "B, allocated=" + allocatedBytes + "B, payload=" + payloadBytes + "B";
+    }
+};
+
+/*
+    Slab allocator over direct ByteBuffers, memcached style.
+    - Chunks come in power of 2 size classes from 64 bytes up to the slab size (1MB)
+    - A class without free chunks gets a fresh slab, handed out chunk by chunk from a bump pointer. Freed chunks go back to
+      their class and are handed out again before any new slab is allocated, so a steady state workload stops growing the arena
+    - An address is (slab id << 32 | offset). The first 4 bytes of a chunk hold the value length
+    - The free list of a class is intrusive: a freed chunk's length is set to FREE and the bytes after it hold the address of
+      the next free chunk. Bookkeeping on the heap is a few primitive arrays, however many chunks the arena holds
+    Not thread safe, OffHeapCache guards it.
+ */
+class SlabArena {
+    static final int SLAB_SIZE = 1 << 20;
+    private static final int MIN_CHUNK_SHIFT = 6;
+    private static final int LENGTH_HEADER = 4;
+    private static final int FREE = -1; // Length header of a chunk on a free list
+    private static final long NONE = -1; // End of a free list, or no slab being carved
+
+    private final List <ByteBuffer> slabs = new ArrayList<>();
+    private final List <Integer> slabChunkSizes = new ArrayList<>();
+    // Per size class: first free chunk, and the slab being carved with the offset of its next untouched chunk
+    private final long[] freeListHeads;
+    private final long[] carvedSlabs;
+    private final int[] carveOffsets;
+    private final long maxBytes;
+    private long allocatedBytes = 0;
+    private long payloadBytes = 0;
+
+    public SlabArena(long maxBytes) {
+        if (maxBytes < SLAB_SIZE) throw new IllegalArgumentException("Arena must hold at least one slab of " + SLAB_SIZE + " bytes");
+        this.maxBytes = maxBytes;
+        int sizeClasses = Integer.numberOfTrailingZeros(SLAB_SIZE) - MIN_CHUNK_SHIFT + 1;
+        this.freeListHeads = new long[sizeClasses];
+        this.carvedSlabs = new long[sizeClasses];
+        this.carveOffsets = new int[sizeClasses];
+        Arrays.fill(freeListHeads, NONE);
+        Arrays.fill(carvedSlabs, NONE);
+    }
+
+    public long allocate(byte[] bytes) {
+        int needed = bytes.length + LENGTH_HEADER;
+        if (needed > SLAB_SIZE) throw new IllegalArgumentException("Value of " + bytes.length + " bytes doesn't fit in a slab");
+
+        int sizeClass = sizeClassOf(needed);
+        long address = freeListHeads[sizeClass];
+        if (address != NONE) {
+            freeListHeads[sizeClass] = slabs.get(slabOf(address)).getLong(offsetOf(address) + LENGTH_HEADER);
+        }
+        else {
+            address = carveChunk(sizeClass);
+        }
+
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        slab.putInt(offset, bytes.length);
+        slab.put(offset + LENGTH_HEADER, bytes);
+        allocatedBytes += chunkSize(sizeClass);
+        payloadBytes += bytes.length;
+        return address;
+    }
+
+    public void free(long address) {
+        int slabId = slabOf(address);
+        int chunkSize = slabChunkSizes.get(slabId);
+        ByteBuffer slab = slabs.get(slabId);
+        int offset = offsetOf(address);
+        int sizeClass = sizeClassOf(chunkSize);
+        payloadBytes -= slab.getInt(offset);
+        allocatedBytes -= chunkSize;
+        slab.putInt(offset, FREE);
+        slab.putLong(offset + LENGTH_HEADER, freeListHeads[sizeClass]);
+        freeListHeads[sizeClass] = address;
+    }
+
+    // Returns null if the address doesn't point at a sane record, which optimistic readers use to detect a racing free
+    public byte[] read(long address) {
+        int slabId = slabOf(address);
+        if (slabId >= slabs.size()) return null;
+        ByteBuffer slab = slabs.get(slabId);
+        int offset = offsetOf(address);
+        int length = slab.getInt(offset);
+        if (length < 0 || length > slabChunkSizes.get(slabId) - LENGTH_HEADER) return null;
+        byte[] bytes = new byte[length];
+        slab.get(offset + LENGTH_HEADER, bytes);
+        return bytes;
+    }
+
+    public int getSlabCount() {
+        return slabs.size();
+    }
+
+    public long getReservedBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    // Next never used chunk of the class, from a new slab once the current one is used up
+    private long carveChunk(int sizeClass) {
+        int chunkSize = chunkSize(sizeClass);
+        if (carvedSlabs[sizeClass] == NONE || carveOffsets[sizeClass] + chunkSize > SLAB_SIZE) {
+            if (getReservedBytes() + SLAB_SIZE > maxBytes) throw new IllegalStateException("Off-heap arena is full (" + maxBytes + " bytes)");
+            carvedSlabs[sizeClass] = slabs.size();
+            carveOffsets[sizeClass] = 0;
+            slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+            slabChunkSizes.add(chunkSize);
+        }
+        long address = (carvedSlabs[sizeClass] << 32) | carveOffsets[sizeClass];
+        carveOffsets[sizeClass] += chunkSize;
+        return address;
+    }
+
+    private static int sizeClassOf(int bytes) {
+        int rounded = Math.max(1 << MIN_CHUNK_SHIFT, Integer.highestOneBit(bytes - 1) << 1);
+        return Integer.numberOfTrailingZeros(rounded) - MIN_CHUNK_SHIFT;
+    }
+
+    private static int chunkSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CHUNK_SHIFT);
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+};
+
+/*
+    Cache that keeps encoded values off-heap in a SlabArena, only the key to address index lives on the heap.
+    Values don't add to GC work no matter how many there are, at the cost of an encode on put and a decode on get.
+    - put/delete take the StampedLock exclusively, they're already serialized per key by the orchestrator's slot executors
+    - getValue reads optimistically: look up the address, copy the bytes, then validate the stamp. If a writer got in
+      between (the chunk might have been freed and reused) it retries under the read lock
+ */
+class OffHeapCache <K,V> implements Cache <K,V> {
+    private final Map <K, Long> keyToAddressMapping = new ConcurrentHashMap<>();
+    private final SlabArena arena;
+    private final ValueCodec <V> codec;
+    private final StampedLock lock = new StampedLock();
+
+    public OffHeapCache(ValueCodec <V> codec, long maxArenaBytes) {
+        if (codec == null) throw new IllegalArgumentException("Codec cannot be null");
+        this.codec = codec;
+        this.arena = new SlabArena(maxArenaBytes);
+    }
+
+    @Override
+    public V getValue(K key) {
+        long stamp = lock.tryOptimisticRead();
+        byte[] bytes = readBytes(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                bytes = readBytes(key);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        // Encode outside the lock
+        byte[] bytes = codec.encode(value);
+        long stamp = lock.writeLock();
+        try {
+            long address = arena.allocate(bytes);
+            Long previous = keyToAddressMapping.put(key, address);
+            if (previous != null) {
+                arena.free(previous);
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deleteByKey(K key) {
+        long stamp = lock.writeLock();
+        try {
+            Long address = keyToAddressMapping.remove(key);
+            if (address != null) {
+                arena.free(address);
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public ArenaStats getStats() {
+        long stamp = lock.readLock();
+        try {
+            return new ArenaStats(keyToAddressMapping.size(), arena.getSlabCount(), arena.getReservedBytes(), arena.getAllocatedBytes(), arena.getPayloadBytes());
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private byte[] readBytes(K key) {
+        Long address = keyToAddressMapping.get(key);
+        if (address == null) return null;
+        try {
+            return arena.read(address);
+        }
+        catch (RuntimeException ex) {
+            // Torn read during a concurrent write, validate() fails and we retry under the read lock
+            return null;
+        }
+    }
+};
+
 interface Database <K,V> {
     public V getValue(K key);
 
     // Common implementation for create + insert
     public void put(K key, V value);
 
+    // Batch insert, a single round trip for all the entries
+    public void putAll(Map <K,V> entries);
+
+    // Batch lookup, keys that aren't stored are left out of the result
+    public Map <K,V> getAll(Collection <K> keys);
+
     public void deleteByKey(K key);
 };
 
@@ -60,6 +361,28 @@ class DatabaseImpl <K,V> implements Database <K,V> {
         keyToValueMapping.put(key, value);
     }
 
+    @Override
+    public void putAll(Map <K,V> entries) {
+        // Same simulated latency as put(), paid once for the whole batch
+        try {
+            Thread.sleep(50);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        keyToValueMapping.putAll(entries);
+    }
+
+    @Override
+    public Map <K,V> getAll(Collection <K> keys) {
+        Map <K,V> result = new HashMap<>();
+        for (K key: keys) {
+            V value = keyToValueMapping.get(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+
     @Override
     public void deleteByKey(K key) {
         keyToValueMapping.remove(key);
@@ -68,15 +391,164 @@ class DatabaseImpl <K,V> implements Database <K,V> {
 
 interface WriteStrategy <K,V> {
     public void write(Cache <K,V> cache, Database <K,V> database, K key, V value);
+
+    // Bulk variant used by CachingOrchestrator.writeAll(), strategies that can batch the database side should override it
+    public default void writeAll(Cache <K,V> cache, Database <K,V> database, Map <K,V> entries) {
+        for (Map.Entry <K,V> entry: entries.entrySet()) {
+            write(cache, database, entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Called before an evicted key is deleted from the cache, strategies holding unpersisted data for it must persist it here
+    public default void beforeEvict(Cache <K,V> cache, Database <K,V> database, K key) {
+    }
+
+    // Called once when the orchestrator shuts down, after all slot executors have drained
+    public default void shutdown(Database <K,V> database) {
+    }
 };
 
 class WriteThroughStrategy <K,V> implements WriteStrategy <K,V> {
     @Override
     public void write(Cache <K,V> cache, Database <K,V> database, K key, V value) {
-        // CHANGE: Use runAsync instead of supplyAsync since the tasks don't have any return type
-        CompletableFuture <Void> cacheWrite = CompletableFuture.runAsync(() -> cache.put(key, value));
-        CompletableFuture <Void> databaseWrite = CompletableFuture.runAsync(() -> database.put(key, value));
-        CompletableFuture.allOf(cacheWrite, databaseWrite).join();
+        // CHANGE: Both run on the calling slot thread. The caller waited for them anyway, and handing the blocking database write
+        // to the common pool capped concurrent write-throughs at its parallelism, whatever the SlotExecutionMode.
+        // The database goes first so a write it rejects never reaches the cache
+        database.put(key, value);
+        cache.put(key, value);
+    }
+
+    @Override
+    public void writeAll(Cache <K,V> cache, Database <K,V> database, Map <K,V> entries) {
+        // One database round trip for the whole batch instead of one per key
+        database.putAll(entries);
+        entries.forEach(cache::put);
+    }
+};
+
+/*
+    Write-back (write-behind) strategy: write() only updates the cache and records the key as dirty, then returns.
+    - Repeated writes to a key coalesce in dirtyEntries, only the latest value reaches the database
+    - Dirty entries are flushed with Database.putAll() in batches of at most maxBatchSize, either when that many keys are dirty
+      or every flushIntervalMs, whichever comes first
+    - All flushes run under flushLock, so an older value of a key can never be persisted after a newer one
+    - beforeEvict() persists a dirty key synchronously so no acknowledged write is lost when it leaves the cache
+    - A batch the database rejects goes back into dirtyEntries (unless the key was rewritten meanwhile) and is retried by the next flush
+    The strategy is built for one database and only ever flushes into it. Handing it another one throws, an instance can be shared
+    by orchestrators only if they sit in front of the same database.
+ */
+class WriteBackStrategy <K,V> implements WriteStrategy <K,V> {
+    private final Map <K,V> dirtyEntries = new ConcurrentHashMap<>();
+    private final int maxBatchSize;
+    private final ScheduledExecutorService flushExecutor;
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Database <K,V> database;
+
+    public WriteBackStrategy(Database <K,V> database, int maxBatchSize, long flushIntervalMs) {
+        if (database == null) throw new IllegalArgumentException("Database cannot be null");
+        if (maxBatchSize <= 0 || flushIntervalMs <= 0) throw new IllegalArgumentException("Batch size and flush interval must be positive");
+        this.database = database;
+        this.maxBatchSize = maxBatchSize;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-back-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // An exception escaping a periodic task cancels all its later runs, so failures are logged here and retried next time
+        flushExecutor.scheduleWithFixedDelay(this::flushAndLog, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(Cache <K,V> cache, Database <K,V> database, K key, V value) {
+        checkDatabase(database);
+        cache.put(key, value);
+        dirtyEntries.put(key, value);
+
+        // Size trigger, at most one extra flush is queued at a time
+        if (dirtyEntries.size() >= maxBatchSize && flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> {
+                flushScheduled.set(false);
+                flushAndLog();
+            });
+        }
+    }
+
+    @Override
+    public void beforeEvict(Cache <K,V> cache, Database <K,V> database, K key) {
+        checkDatabase(database);
+        synchronized (flushLock) {
+            V value = dirtyEntries.get(key);
+            if (value != null && dirtyEntries.remove(key, value)) {
+                try {
+                    database.put(key, value);
+                }
+                catch (RuntimeException ex) {
+                    dirtyEntries.putIfAbsent(key, value);
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown(Database <K,V> database) {
+        checkDatabase(database);
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public int getDirtyCount() {
+        return dirtyEntries.size();
+    }
+
+    public void flush() {
+        synchronized (flushLock) {
+            Map <K,V> batch = new HashMap<>();
+            for (Map.Entry <K,V> entry: dirtyEntries.entrySet()) {
+                // If the key was rewritten after we read it, the conditional remove fails and the newer value waits for the next batch
+                if (dirtyEntries.remove(entry.getKey(), entry.getValue())) {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                if (batch.size() == maxBatchSize) {
+                    persist(batch);
+                    batch = new HashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                persist(batch);
+            }
+        }
+    }
+
+    private void checkDatabase(Database <K,V> database) {
+        if (database != this.database) throw new IllegalArgumentException("This WriteBackStrategy flushes into another database");
+    }
+
+    private void flushAndLog() {
+        try {
+            flush();
+        }
+        catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // Entries of a failed batch become dirty again, a newer value written since then wins over the one that failed
+    private void persist(Map <K,V> batch) {
+        try {
+            database.putAll(batch);
+        }
+        catch (RuntimeException ex) {
+            batch.forEach(dirtyEntries::putIfAbsent);
+            throw ex;
+        }
     }
 };
 
@@ -99,19 +571,19 @@ class DLLNode <K,V> {
         return value;
     }
 
-    public DLLNode getNext() {
+    public DLLNode <K,V> getNext() {
         return next;
     }
 
-    public DLLNode getPrev() {
+    public DLLNode <K,V> getPrev() {
         return prev;
     }
 
-    public void setNext(DLLNode next) {
+    public void setNext(DLLNode <K,V> next) {
        this.next = next;
     }
 
-    public void setPrev(DLLNode prev) {
+    public void setPrev(DLLNode <K,V> prev) {
         this.prev = prev;
     }
 };
@@ -148,16 +620,34 @@ class DLL <K,V> {
     public boolean isEmpty() {
         return head.getNext() == tail;
     }
+
+    // Keys from the tail (least recently used) to the head
+    public List <K> getKeysFromTail() {
+        List <K> keys = new ArrayList<>();
+        for (DLLNode <K,V> node = tail.getPrev(); node != head; node = node.getPrev()) {
+            keys.add(node.getKey());
+        }
+        return keys;
+    }
 };
 
 interface EvictionStrategy <K,V> {
     public void accessed(K key, V value);
 
+    // Key to drop from the cache. Admission based strategies may return a rejected candidate rather than the least recently used key
     public K evict();
+
+    // Forget a key that left the cache for another reason than eviction (e.g. expiry)
+    public void remove(K key);
+
+    // Keys from the next one to be evicted to the last, used for snapshots. Empty if the strategy keeps no such order
+    public default List <K> getKeysInEvictionOrder() {
+        return Collections.emptyList();
+    }
 };
 
 class LRUEvictionStrategy <K,V> implements EvictionStrategy <K,V> {
-    private final DLL <K,V> dll = new DLL();
+    private final DLL <K,V> dll = new DLL<>(); // CHANGED: was the raw new DLL()
     private final Map <K, DLLNode <K,V>> keyToNodeMappings = new ConcurrentHashMap<>();
 
     // CHANGE: add synchronized for thread safety, there is a chance that threads of different slots execute this parallely, we need to have locking so that linked list structure isn't corrupted
@@ -189,315 +679,2983 @@ class LRUEvictionStrategy <K,V> implements EvictionStrategy <K,V> {
         keyToNodeMappings.remove(key);
         return key;
     }
-};
-
-class CachingOrchestrator <K,V> {
-    private final Cache <K,V> cache;
-    private final Database <K,V>  database;
-    private final EvictionStrategy <K,V>  evictionStrategy;
-    private final WriteStrategy <K,V> writeStrategy;
-    private final AtomicInteger size = new AtomicInteger(0);
-    private final int MAX_CAPACITY;
-    private final int THREAD_POOL_SIZE = 10;
-    private final Map <Integer, ExecutorService> slotToExecutorMapping;
-    // CHANGED: Added lock for atomic size check and eviction decision
-    private final Object sizeLock = new Object();
 
-    public CachingOrchestrator(Cache cache, Database database, EvictionStrategy evictionStrategy, WriteStrategy writeStrategy, int maxCapacity) {
-        this.cache = cache;
-        this.database = database;
-        this.evictionStrategy = evictionStrategy;
-        this.writeStrategy = writeStrategy;
-        this.MAX_CAPACITY = maxCapacity;
-        this.slotToExecutorMapping = new ConcurrentHashMap<>();
-        for (int i=0; i<THREAD_POOL_SIZE; i++) {
-            slotToExecutorMapping.put(i, Executors.newSingleThreadExecutor());
+    @Override
+    public synchronized void remove(K key) {
+        DLLNode <K,V> dllNode = keyToNodeMappings.remove(key);
+        if (dllNode != null) {
+            dll.removeNode(dllNode);
         }
     }
 
-    private int getSlot(int hash) {
-        return Math.abs(hash % THREAD_POOL_SIZE);
+    // Only copies the keys under the lock, one pointer walk over the list
+    @Override
+    public synchronized List <K> getKeysInEvictionOrder() {
+        return dll.getKeysFromTail();
     }
+};
 
-    public void write(K key, V value) {
-        int slot = getSlot(key.hashCode());
+/*
+    Ring buffer of access events for one stripe, modelled after Caffeine's read buffer.
+    Producers claim a slot with a single CAS on writeCounter and never block: if the stripe is full or the CAS is lost
+    the event is simply dropped. Dropping a read only makes the LRU order slightly less precise, it never corrupts it.
+    Only the thread holding the eviction lock drains, so readCounter has a single writer.
+ */
+class AccessBuffer <K,V> {
+    static final int OFFER_SUCCESS = 0;
+    static final int OFFER_FAILED = 1;
+    static final int OFFER_FULL = 2;
 
-        K lruKey = null;
-        boolean needsEviction = false;
+    private static final int BUFFER_SIZE = 64; // Must be a power of 2. CHANGED: was 16, a larger batch amortizes the drain's lock
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
 
-        synchronized (sizeLock) {
-            V existingValue = cache.getValue(key);
-            boolean isUpdate = (existingValue != null);
+    private final AtomicReferenceArray <DLLNode <K,V>> slots = new AtomicReferenceArray<>(BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong(0);
+    private volatile long readCounter = 0;
 
-            if (!isUpdate && size.get() >= MAX_CAPACITY) {
-                // NEW insert at capacity → evict
-                lruKey = evictionStrategy.evict();
-                needsEviction = true;
-                // Size stays at MAX (net zero)
-            } else if (!isUpdate) {
-                // NEW insert below capacity → increment
-                size.incrementAndGet();
-            }
-            // If isUpdate, don't modify size at all
+    public int offer(DLLNode <K,V> node) {
+        long head = readCounter;
+        long tail = writeCounter.get();
+        if (tail - head >= BUFFER_SIZE) return OFFER_FULL;
+        if (!writeCounter.compareAndSet(tail, tail + 1)) return OFFER_FAILED;
+        slots.lazySet((int) (tail & BUFFER_MASK), node);
+        return OFFER_SUCCESS;
+    }
+
+    // Must only be called while holding the eviction lock, returns the number of accesses handed to the consumer
+    public int drainTo(java.util.function.Consumer <DLLNode <K,V>> consumer) {
+        long head = readCounter;
+        long tail = writeCounter.get();
+        int drained = 0;
+        while (head < tail) {
+            int index = (int) (head & BUFFER_MASK);
+            DLLNode <K,V> node = slots.get(index);
+            head++;
+            // CHANGE: A slot claimed but not yet published is skipped rather than waited for. Waiting left the stripe full
+            // for as long as its producer was descheduled, and every hit on it was dropped meanwhile. The late write lands
+            // in a freed slot and is replayed by a later drain or overwritten, either way just an imprecise access
+            if (node == null) continue;
+            slots.lazySet(index, null);
+            consumer.accept(node);
+            drained++;
         }
+        readCounter = head;
+        return drained;
+    }
+};
 
-        if (needsEviction && lruKey!=null) {
-            int lruKeySlot = getSlot(lruKey.hashCode());
-            final K finalLruKey = lruKey; // For lambda capture
+/*
+    LRU eviction strategy whose hit path never takes a lock.
+    - Hits are recorded into a striped set of lossy AccessBuffers (stripe picked by thread id) and replayed onto the DLL in batches
+    - New keys go through an unbounded write buffer, so an insert is never lost and every cached key is eventually linked into the DLL
+    - Whoever fills a buffer tries to drain with tryLock() and then offers its hit again. If someone else is already draining
+      it yields once first: on a busy core the drainer is likely descheduled, and spinning on a full buffer would drop every hit
+    - evict() takes the lock unconditionally and drains everything first, so the victim reflects all recorded accesses
+ */
+class BufferedLRUEvictionStrategy <K,V> implements EvictionStrategy <K,V> {
+    private final DLL <K,V> dll = new DLL<>();
+    private final Map <K, DLLNode <K,V>> keyToNodeMappings = new ConcurrentHashMap<>();
+    private final AccessBuffer <K,V> [] readBuffers;
+    private final int stripeMask;
+    private final Queue <DLLNode <K,V>> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Hits replayed from the read buffers, guarded by evictionLock. Hits dropped by a full or contended buffer are not in it
+    private long replayedAccesses = 0;
 
-            if (lruKeySlot == slot) {
-                ExecutorService executor = slotToExecutorMapping.get(lruKeySlot);
-                executor.execute(() -> {
-                    cache.deleteByKey(finalLruKey);
-                    writeStrategy.write(cache, database, key, value);
-                    evictionStrategy.accessed(key, value);
-                });
-            }
-            else {
-                ExecutorService lruExecutor = slotToExecutorMapping.get(lruKeySlot);
-                ExecutorService insertionExecutor = slotToExecutorMapping.get(slot);
-                lruExecutor.execute(() -> cache.deleteByKey(finalLruKey));
-                insertionExecutor.execute(() -> {
-                    writeStrategy.write(cache, database, key, value);
-                    evictionStrategy.accessed(key, value);
-                });
-            }
+    @SuppressWarnings("unchecked")
+    public BufferedLRUEvictionStrategy() {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        this.readBuffers = (AccessBuffer <K,V> []) new AccessBuffer<?,?>[stripes];
+        for (int i=0; i<stripes; i++) {
+            readBuffers[i] = new AccessBuffer<>();
         }
-        else {
-            ExecutorService executor = slotToExecutorMapping.get(slot);
-            executor.execute(() -> {
-                writeStrategy.write(cache, database, key, value);
-                evictionStrategy.accessed(key, value);
-            });
+        this.stripeMask = stripes - 1;
+    }
+
+    // CHANGE: Only the hit path is left in here, the insert and full buffer paths are split out so this stays small enough to inline
+    @Override
+    public void accessed(K key, V value) {
+        DLLNode <K,V> dllNode = keyToNodeMappings.get(key);
+        if (dllNode == null && (dllNode = insert(key, value)) == null) return;
+
+        AccessBuffer <K,V> readBuffer = readBuffers[(int) (mix(Thread.currentThread().getId()) & stripeMask)];
+        if (readBuffer.offer(dllNode) == AccessBuffer.OFFER_FULL) {
+            offerAfterDrain(readBuffer, dllNode);
         }
     }
 
-    public V read(K key) {
-        int slot = getSlot(key.hashCode());
-        ExecutorService executor = slotToExecutorMapping.get(slot);
+    // Returns the node another thread inserted first, or null once ours is queued for linking
+    private DLLNode <K,V> insert(K key, V value) {
+        DLLNode <K,V> newNode = new DLLNode<>(key, value);
+        DLLNode <K,V> dllNode = keyToNodeMappings.putIfAbsent(key, newNode);
+        if (dllNode == null) {
+            writeBuffer.add(newNode);
+            tryDrain();
+        }
+        return dllNode;
+    }
 
-        Future <V> value = executor.submit(() -> {
-            V val = cache.getValue(key);
-            if (val != null) {
-                evictionStrategy.accessed(key, val);
-            }
-            return val;
-        });
+    private void offerAfterDrain(AccessBuffer <K,V> readBuffer, DLLNode <K,V> dllNode) {
+        if (!tryDrain()) Thread.yield();
+        readBuffer.offer(dllNode); // Still dropped if the buffer is full again
+    }
 
+    @Override
+    public K evict() {
+        evictionLock.lock();
         try {
-            return value.get();
+            drainBuffers();
+            if (dll.isEmpty()) {
+                return null;
+            }
+
+            DLLNode <K,V> tailPredecessor = dll.getTailPredecessor();
+            K key = tailPredecessor.getKey();
+            unlink(tailPredecessor);
+            keyToNodeMappings.remove(key, tailPredecessor);
+            return key;
         }
-        catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            return null;
+        finally {
+            evictionLock.unlock();
         }
-        catch (ExecutionException ex) {
-            ex.printStackTrace();
-            return null;
+    }
+
+    @Override
+    public void remove(K key) {
+        evictionLock.lock();
+        try {
+            // Drain first so a node still sitting in the write buffer is linked before we unlink it
+            drainBuffers();
+            DLLNode <K,V> dllNode = keyToNodeMappings.remove(key);
+            if (dllNode != null && isLinked(dllNode)) {
+                unlink(dllNode);
+            }
+        }
+        finally {
+            evictionLock.unlock();
         }
     }
 
-    // CHANGED: Added utility methods for testing
-    public int getCurrentSize() {
-        return size.get();
+    // Returns false if another thread is already draining
+    private boolean tryDrain() {
+        if (!evictionLock.tryLock()) return false;
+        try {
+            drainBuffers();
+            return true;
+        }
+        finally {
+            evictionLock.unlock();
+        }
     }
 
-    public int getMaxCapacity() {
-        return MAX_CAPACITY;
+    // Must only be called while holding evictionLock. Inserts are applied before reads so that a hit on a fresh key finds it linked
+    private void drainBuffers() {
+        DLLNode <K,V> node;
+        while ((node = writeBuffer.poll()) != null) {
+            if (keyToNodeMappings.get(node.getKey()) == node && !isLinked(node)) {
+                dll.addFront(node);
+            }
+        }
+        for (AccessBuffer <K,V> readBuffer: readBuffers) {
+            replayedAccesses += readBuffer.drainTo(this::onAccess);
+        }
     }
 
-    public void shutdown() {
-        for (ExecutorService executor : slotToExecutorMapping.values()) {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
+    // Drains first, so every hit recorded so far is counted
+    public long getReplayedAccesses() {
+        evictionLock.lock();
+        try {
+            drainBuffers();
+            return replayedAccesses;
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void onAccess(DLLNode <K,V> node) {
+        // Skip stale events for nodes that were evicted after the access was buffered
+        if (!isLinked(node)) return;
+        dll.removeNode(node);
+        dll.addFront(node);
+    }
+
+    /*
+        CHANGE: A node is linked while its prev pointer is set, unlink() clears it. This replaces an identity set of linked
+        nodes, whose lookup on every replayed hit made the drain (and the time the eviction lock is held) about twice as long.
+        Both are only called while holding evictionLock.
+     */
+    private boolean isLinked(DLLNode <K,V> node) {
+        return node.getPrev() != null;
+    }
+
+    private void unlink(DLLNode <K,V> node) {
+        dll.removeNode(node);
+        node.setPrev(null);
+        node.setNext(null);
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        return x ^ (x >>> 33);
+    }
+};
+
+/*
+    Count-min sketch of 4-bit counters used by TinyLfuEvictionStrategy to estimate how often a key was seen.
+    Each long packs 16 counters, every key maps to 4 counters (one per hash seed) and the estimate is their minimum.
+    After sampleSize increments every counter is halved, so old popularity ages out and the sketch follows shifts in traffic.
+ */
+class FrequencySketch <K> {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    public FrequencySketch(int maximumSize) {
+        int size = Math.max(8, Integer.highestOneBit(Math.max(1, maximumSize) - 1) << 1);
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+
+    public int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i=0; i<SEEDS.length; i++) {
+            int offset = counterOffset(hash, i);
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    public void increment(K key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i=0; i<SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            if (((table[index] >>> offset) & 0xfL) != MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
             }
         }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // Ages the sketch by halving every counter
+    private void reset() {
+        for (int i=0; i<table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private int counterOffset(int hash, int i) {
+        return ((hash >>> (i << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
     }
 };
 
-public class Main {
-    public static void main(String[] args) throws InterruptedException {
-        System.out.println("=== Cache System Test Suite ===\n");
+/*
+    W-TinyLFU eviction strategy
+    - New keys land in a small LRU admission window (~1% of capacity) so bursts of fresh keys still get a chance to build up frequency
+    - The main region is a segmented LRU: keys enter probation and get promoted to protected (~80% of main) on their next hit
+    - When the cache is full, the window's LRU key (the candidate) competes with probation's LRU key (the victim) on sketch frequency.
+      The loser is returned from evict(), so a cold candidate is rejected instead of flushing a hot key out of the main region.
+      This is what keeps one-off scans from wiping the cache the way they do with plain LRU.
+ */
+class TinyLfuEvictionStrategy <K,V> implements EvictionStrategy <K,V> {
+    private final DLL <K,V> window = new DLL<>();
+    private final DLL <K,V> probation = new DLL<>();
+    private final DLL <K,V> protectedSegment = new DLL<>();
+    private final Map <K, DLLNode <K,V>> windowNodes = new HashMap<>();
+    private final Map <K, DLLNode <K,V>> probationNodes = new HashMap<>();
+    private final Map <K, DLLNode <K,V>> protectedNodes = new HashMap<>();
+    private final FrequencySketch <K> sketch;
+    private final int maxWindowSize;
+    private final int maxMainSize;
+    private final int maxProtectedSize;
 
-        // Initialize components
-        Cache<String, String> cache = new CacheImpl<>();
-        Database<String, String> database = new DatabaseImpl<>();
-        WriteStrategy<String, String> writeStrategy = new WriteThroughStrategy<>();
-        EvictionStrategy<String, String> evictionStrategy = new LRUEvictionStrategy<>();
+    public TinyLfuEvictionStrategy(int maximumSize) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("Maximum size must be positive");
+        this.sketch = new FrequencySketch<>(maximumSize);
+        this.maxWindowSize = Math.max(1, maximumSize / 100);
+        this.maxMainSize = Math.max(0, maximumSize - maxWindowSize);
+        this.maxProtectedSize = (int) (maxMainSize * 0.8);
+    }
 
-        int capacity = 5;
-        CachingOrchestrator<String, String> orchestrator = new CachingOrchestrator<>(
-                cache, database, evictionStrategy, writeStrategy, capacity
-        );
+    @Override
+    public synchronized void accessed(K key, V value) {
+        sketch.increment(key);
 
-        // Test 1: Basic Write and Read
-        System.out.println("Test 1: Basic Write and Read");
-        System.out.println("------------------------------");
-        orchestrator.write("user1", "Alice");
-        orchestrator.write("user2", "Bob");
-        orchestrator.write("user3", "Charlie");
-        Thread.sleep(200);
+        DLLNode <K,V> node;
+        if ((node = windowNodes.get(key)) != null) {
+            window.removeNode(node);
+            window.addFront(node);
+        }
+        else if ((node = probationNodes.remove(key)) != null) {
+            // Second hit in the main region, promote to protected
+            probation.removeNode(node);
+            protectedSegment.addFront(node);
+            protectedNodes.put(key, node);
+            demoteProtectedOverflow();
+        }
+        else if ((node = protectedNodes.get(key)) != null) {
+            protectedSegment.removeNode(node);
+            protectedSegment.addFront(node);
+        }
+        else {
+            node = new DLLNode<>(key, value);
+            window.addFront(node);
+            windowNodes.put(key, node);
+            // While the main region still has room, window overflow moves there without any competition
+            while (windowNodes.size() > maxWindowSize && mainSize() < maxMainSize) {
+                moveWindowTailToProbation();
+            }
+        }
+    }
 
-        System.out.println("Read user1: " + orchestrator.read("user1"));
-        System.out.println("Read user2: " + orchestrator.read("user2"));
-        System.out.println("Read user3: " + orchestrator.read("user3"));
-        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
-        System.out.println("✅ PASS\n");
+    @Override
+    public synchronized K evict() {
+        if (windowNodes.size() >= maxWindowSize && !windowNodes.isEmpty() && mainSize() > 0) {
+            DLLNode <K,V> candidate = window.getTailPredecessor();
+            DLLNode <K,V> victim = probation.isEmpty() ? protectedSegment.getTailPredecessor() : probation.getTailPredecessor();
 
-        // Test 2: Fill to Capacity
-        System.out.println("Test 2: Fill Cache to Capacity");
-        System.out.println("--------------------------------");
-        orchestrator.write("user4", "David");
-        orchestrator.write("user5", "Eve");
-        Thread.sleep(200);
-        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
-        System.out.println("Expected: 5/5");
-        System.out.println(orchestrator.getCurrentSize() == 5 ? "✅ PASS\n" : "❌ FAIL\n");
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                // Candidate is admitted into main, the victim makes room for it
+                removeFromMain(victim);
+                moveWindowTailToProbation();
+                return victim.getKey();
+            }
+            // Candidate rejected, the main region is left untouched
+            window.removeNode(candidate);
+            windowNodes.remove(candidate.getKey());
+            return candidate.getKey();
+        }
 
-        // Test 3: LRU Eviction
-        System.out.println("Test 3: LRU Eviction");
-        System.out.println("---------------------");
-        System.out.println("Current keys: user1, user2, user3, user4, user5");
+        if (!probation.isEmpty()) return removeFromMain(probation.getTailPredecessor());
+        if (!protectedSegment.isEmpty()) return removeFromMain(protectedSegment.getTailPredecessor());
+        if (!window.isEmpty()) {
+            DLLNode <K,V> tailPredecessor = window.getTailPredecessor();
+            window.removeNode(tailPredecessor);
+            windowNodes.remove(tailPredecessor.getKey());
+            return tailPredecessor.getKey();
+        }
+        return null;
+    }
 
-        // Access user2 and user3 to make them recently used
-        orchestrator.read("user2");
-        orchestrator.read("user3");
-        Thread.sleep(100);
+    @Override
+    public synchronized void remove(K key) {
+        DLLNode <K,V> node;
+        if ((node = windowNodes.remove(key)) != null) {
+            window.removeNode(node);
+        }
+        else if ((node = probationNodes.get(key)) != null || (node = protectedNodes.get(key)) != null) {
+            removeFromMain(node);
+        }
+    }
 
-        System.out.println("Accessed user2 and user3 (now most recent)");
-        System.out.println("Adding user6... should evict user1 (LRU)");
+    private int mainSize() {
+        return probationNodes.size() + protectedNodes.size();
+    }
 
-        orchestrator.write("user6", "Frank");
-        Thread.sleep(200);
+    private void moveWindowTailToProbation() {
+        DLLNode <K,V> node = window.getTailPredecessor();
+        window.removeNode(node);
+        windowNodes.remove(node.getKey());
+        probation.addFront(node);
+        probationNodes.put(node.getKey(), node);
+    }
 
-        String evicted = orchestrator.read("user1");
-        String exists = orchestrator.read("user6");
+    private void demoteProtectedOverflow() {
+        while (protectedNodes.size() > maxProtectedSize && !protectedSegment.isEmpty()) {
+            DLLNode <K,V> node = protectedSegment.getTailPredecessor();
+            protectedSegment.removeNode(node);
+            protectedNodes.remove(node.getKey());
+            probation.addFront(node);
+            probationNodes.put(node.getKey(), node);
+        }
+    }
 
-        System.out.println("Read user1 (should be null): " + evicted);
-        System.out.println("Read user6 (should be 'Frank'): " + exists);
-        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
-        System.out.println((evicted == null && "Frank".equals(exists)) ? "✅ PASS\n" : "❌ FAIL\n");
+    private K removeFromMain(DLLNode <K,V> node) {
+        K key = node.getKey();
+        if (probationNodes.remove(key) != null) {
+            probation.removeNode(node);
+        }
+        else {
+            protectedNodes.remove(key);
+            protectedSegment.removeNode(node);
+        }
+        return key;
+    }
+};
 
-        // Test 4: Update Existing Key (Critical!)
-        System.out.println("Test 4: Update Existing Key");
-        System.out.println("----------------------------");
-        int sizeBefore = orchestrator.getCurrentSize();
-        System.out.println("Size before update: " + sizeBefore);
+class TimerNode <K> {
+    private final K key;
+    // Absolute TTL deadline, Long.MAX_VALUE when the entry only expires after access
+    private final long ttlDeadline;
+    // Effective deadline, may be pushed later by reads without relinking the node (see TimerWheel.touch)
+    private volatile long deadline;
+    private TimerNode <K> next;
+    private TimerNode <K> prev;
 
-        orchestrator.write("user2", "Bob_Updated");
-        Thread.sleep(200);
+    public TimerNode(K key, long ttlDeadline, long deadline) {
+        this.key = key;
+        this.ttlDeadline = ttlDeadline;
+        this.deadline = deadline;
+    }
 
-        int sizeAfter = orchestrator.getCurrentSize();
-        String updated = orchestrator.read("user2");
+    public K getKey() {
+        return key;
+    }
 
-        System.out.println("Updated user2 to: " + updated);
-        System.out.println("Size after update: " + sizeAfter);
-        System.out.println("Expected: Size should NOT change (still " + sizeBefore + ")");
-        System.out.println((sizeAfter == sizeBefore && "Bob_Updated".equals(updated)) ? "✅ PASS\n" : "❌ FAIL\n");
+    public long getTtlDeadline() {
+        return ttlDeadline;
+    }
 
-        // Test 5: Multiple Updates Don't Increase Size
-        System.out.println("Test 5: Multiple Updates to Same Key");
-        System.out.println("-------------------------------------");
-        sizeBefore = orchestrator.getCurrentSize();
+    public long getDeadline() {
+        return deadline;
+    }
 
-        orchestrator.write("user3", "Charlie_v2");
-        Thread.sleep(100);
-        orchestrator.write("user3", "Charlie_v3");
-        Thread.sleep(100);
-        orchestrator.write("user3", "Charlie_v4");
-        Thread.sleep(200);
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
 
-        sizeAfter = orchestrator.getCurrentSize();
-        String finalValue = orchestrator.read("user3");
+    public TimerNode <K> getNext() {
+        return next;
+    }
 
-        System.out.println("Updated user3 3 times");
-        System.out.println("Final value: " + finalValue);
-        System.out.println("Size before: " + sizeBefore + ", after: " + sizeAfter);
-        System.out.println((sizeAfter == sizeBefore && "Charlie_v4".equals(finalValue)) ? "✅ PASS\n" : "❌ FAIL\n");
+    public TimerNode <K> getPrev() {
+        return prev;
+    }
 
-        // Test 6: Concurrent Writes
-        System.out.println("Test 6: Concurrent Writes");
-        System.out.println("--------------------------");
-        CountDownLatch latch = new CountDownLatch(20);
+    public void setNext(TimerNode <K> next) {
+        this.next = next;
+    }
 
-        for (int i = 0; i < 20; i++) {
-            final int index = i;
-            new Thread(() -> {
-                orchestrator.write("concurrent" + index, "Value" + index);
-                latch.countDown();
-            }).start();
+    public void setPrev(TimerNode <K> prev) {
+        this.prev = prev;
+    }
+
+    public boolean isLinked() {
+        return next != null;
+    }
+};
+
+/*
+    Hierarchical timing wheel (Varghese & Lauck) that drives entry expiry in CachingOrchestrator.
+    - 5 levels of buckets with tick sizes of ~16.8ms, ~1.07s, ~1.15min, ~1.22h and ~3.26 days (powers of two in nanos),
+      a deadline goes into the finest level whose total span still covers it
+    - advance() only visits the buckets whose tick has passed. Nodes found there either expire or cascade into a finer level,
+      so scheduling, cancelling and expiring are all O(1) amortized, no matter how many entries there are
+    - Reads can push a deadline later with touch() without taking the lock, the node is moved lazily when its old bucket fires
+    Times are nanos relative to the owner's start, so they are never negative.
+ */
+class TimerWheel <K> {
+    private static final int[] BUCKETS = {64, 64, 64, 64, 16};
+    private static final int[] SHIFTS = {24, 30, 36, 42, 48};
+
+    private final TimerNode <K> [][] wheel;
+    private final Map <K, TimerNode <K>> keyToNodeMappings = new ConcurrentHashMap<>();
+    private long currentTime;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long now) {
+        this.currentTime = now;
+        this.wheel = (TimerNode <K> [][]) new TimerNode<?>[BUCKETS.length][];
+        for (int level=0; level<BUCKETS.length; level++) {
+            wheel[level] = (TimerNode <K> []) new TimerNode<?>[BUCKETS[level]];
+            for (int bucket=0; bucket<BUCKETS[level]; bucket++) {
+                TimerNode <K> sentinel = new TimerNode<>(null, Long.MAX_VALUE, Long.MAX_VALUE);
+                sentinel.setNext(sentinel);
+                sentinel.setPrev(sentinel);
+                wheel[level][bucket] = sentinel;
+            }
         }
+    }
 
-        latch.await();
-        Thread.sleep(300);
+    public synchronized void schedule(K key, long ttlDeadline, long deadline) {
+        cancel(key);
+        TimerNode <K> node = new TimerNode<>(key, ttlDeadline, deadline);
+        keyToNodeMappings.put(key, node);
+        link(node);
+    }
 
-        int finalSize = orchestrator.getCurrentSize();
-        System.out.println("Wrote 20 concurrent keys");
-        System.out.println("Final size: " + finalSize + "/" + orchestrator.getMaxCapacity());
-        System.out.println("Size should be at capacity (5)");
-        System.out.println((finalSize <= capacity) ? "✅ PASS\n" : "❌ FAIL\n");
+    public synchronized void cancel(K key) {
+        TimerNode <K> node = keyToNodeMappings.remove(key);
+        if (node != null && node.isLinked()) {
+            unlink(node);
+        }
+    }
 
-        // Test 7: Read Your Own Writes
-        System.out.println("Test 7: Read Your Own Writes");
-        System.out.println("-----------------------------");
-        String testKey = "consistency-test";
-        orchestrator.write(testKey, "TestValue");
-        Thread.sleep(200);
+    // Lock-free, used on the read path for expire-after-access
+    public void touch(K key, long accessDeadline) {
+        TimerNode <K> node = keyToNodeMappings.get(key);
+        if (node != null) {
+            node.setDeadline(Math.min(node.getTtlDeadline(), accessDeadline));
+        }
+    }
 
-        String readValue = orchestrator.read(testKey);
-        System.out.println("Wrote: TestValue, Read: " + readValue);
-        System.out.println("TestValue".equals(readValue) ? "✅ PASS\n" : "❌ FAIL\n");
+    public long getDeadline(K key) {
+        TimerNode <K> node = keyToNodeMappings.get(key);
+        return node == null ? Long.MAX_VALUE : node.getDeadline();
+    }
 
-        // Test 8: Thread Affinity (Same Key Operations)
-        System.out.println("Test 8: Thread Affinity");
-        System.out.println("------------------------");
-        String affinityKey = "affinity-test";
+    public long getTtlDeadline(K key) {
+        TimerNode <K> node = keyToNodeMappings.get(key);
+        return node == null ? Long.MAX_VALUE : node.getTtlDeadline();
+    }
 
-        orchestrator.write(affinityKey, "v1");
-        Thread.sleep(50);
-        orchestrator.write(affinityKey, "v2");
-        Thread.sleep(50);
-        orchestrator.write(affinityKey, "v3");
-        Thread.sleep(200);
+    public int getScheduledCount() {
+        return keyToNodeMappings.size();
+    }
 
-        String affinityValue = orchestrator.read(affinityKey);
-        System.out.println("Wrote v1, v2, v3 sequentially to same key");
-        System.out.println("Final value: " + affinityValue);
-        System.out.println("v3".equals(affinityValue) ? "✅ PASS\n" : "❌ FAIL\n");
+    /*
+        Moves the wheel to now and reports every key whose deadline has passed.
+        Expired nodes stay registered (unlinked) until the owner confirms with removeIfExpired(), so that a write which
+        rescheduled the key in the meantime is never undone by a stale expiry.
+     */
+    public synchronized void advance(long now, java.util.function.Consumer <K> onExpired) {
+        long previousTime = currentTime;
+        currentTime = now;
+        for (int level=0; level<BUCKETS.length; level++) {
+            long previousTicks = previousTime >>> SHIFTS[level];
+            long currentTicks = now >>> SHIFTS[level];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0) break;
+            expireBuckets(level, previousTicks, delta, onExpired);
+        }
+    }
 
-        // Test 9: Cache Miss Returns Null
-        System.out.println("Test 9: Cache Miss");
-        System.out.println("-------------------");
-        String missValue = orchestrator.read("nonexistent-key");
-        System.out.println("Read nonexistent key: " + missValue);
-        System.out.println("Expected: null");
-        System.out.println((missValue == null) ? "✅ PASS\n" : "❌ FAIL\n");
+    // Returns true if the key is still the expired node reported by advance(), in which case it's forgotten
+    public synchronized boolean removeIfExpired(K key, long now) {
+        TimerNode <K> node = keyToNodeMappings.get(key);
+        if (node == null || node.isLinked()) return false;
+        if (node.getDeadline() > now) {
+            // A read extended it after it fired, put it back on the wheel
+            link(node);
+            return false;
+        }
+        keyToNodeMappings.remove(key, node);
+        return true;
+    }
 
-        // Test 10: Stress Test - Verify Size Never Exceeds Capacity
-        System.out.println("Test 10: Stress Test (100 operations)");
-        System.out.println("--------------------------------------");
-        CountDownLatch stressLatch = new CountDownLatch(100);
+    private void expireBuckets(int level, long previousTicks, long delta, java.util.function.Consumer <K> onExpired) {
+        int mask = BUCKETS[level] - 1;
+        int steps = (int) Math.min(1 + delta, BUCKETS[level]);
+        int start = (int) (previousTicks & mask);
+        for (int i=start; i<start+steps; i++) {
+            TimerNode <K> sentinel = wheel[level][i & mask];
+            TimerNode <K> node = sentinel.getNext();
+            sentinel.setNext(sentinel);
+            sentinel.setPrev(sentinel);
 
-        for (int i = 0; i < 100; i++) {
-            final int index = i;
-            new Thread(() -> {
-                if (index % 2 == 0) {
-                    orchestrator.write("stress" + (index % 30), "V" + index);
-                } else {
-                    orchestrator.read("stress" + (index % 30));
+            while (node != sentinel) {
+                TimerNode <K> next = node.getNext();
+                node.setNext(null);
+                node.setPrev(null);
+                if (node.getDeadline() <= currentTime) {
+                    onExpired.accept(node.getKey());
                 }
-                stressLatch.countDown();
-            }).start();
+                else {
+                    // Not due yet (cascading from a coarser level, or extended by a read), re-file it at the right precision
+                    link(node);
+                }
+                node = next;
+            }
         }
+    }
 
-        stressLatch.await();
-        Thread.sleep(500);
+    private void link(TimerNode <K> node) {
+        TimerNode <K> sentinel = findBucket(Math.max(node.getDeadline(), currentTime));
+        TimerNode <K> last = sentinel.getPrev();
+        last.setNext(node);
+        node.setPrev(last);
+        node.setNext(sentinel);
+        sentinel.setPrev(node);
+    }
+
+    private void unlink(TimerNode <K> node) {
+        node.getPrev().setNext(node.getNext());
+        node.getNext().setPrev(node.getPrev());
+        node.setNext(null);
+        node.setPrev(null);
+    }
+
+    private TimerNode <K> findBucket(long time) {
+        long duration = time - currentTime;
+        int level = 0;
+        while (level < BUCKETS.length - 1 && duration >= (1L << SHIFTS[level + 1])) {
+            level++;
+        }
+        int index = (int) ((time >>> SHIFTS[level]) & (BUCKETS[level] - 1));
+        return wheel[level][index];
+    }
+};
+
+// Cost of an entry against the orchestrator's weight budget, must be non-negative and stable for a given key/value
+interface Weigher <K,V> {
+    public int weigh(K key, V value);
+};
+
+// Every entry weighs 1, which turns the weight budget into a plain entry count
+class SingletonWeigher <K,V> implements Weigher <K,V> {
+    @Override
+    public int weigh(K key, V value) {
+        return 1;
+    }
+};
+
+// Source of values for read-through loading on a cache miss
+interface CacheLoader <K,V> {
+    public V load(K key);
+
+    // Keys without a value are left out of the result. Override when the source supports batched reads
+    public default Map <K,V> loadAll(Collection <K> keys) {
+        Map <K,V> result = new HashMap<>();
+        for (K key: keys) {
+            V value = load(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+};
+
+class DatabaseCacheLoader <K,V> implements CacheLoader <K,V> {
+    private final Database <K,V> database;
+
+    public DatabaseCacheLoader(Database <K,V> database) {
+        if (database == null) throw new IllegalArgumentException("Database cannot be null");
+        this.database = database;
+    }
+
+    @Override
+    public V load(K key) {
+        return database.getValue(key);
+    }
+
+    @Override
+    public Map <K,V> loadAll(Collection <K> keys) {
+        return database.getAll(keys);
+    }
+};
+
+/*
+    HDR-style latency histogram: log-linear buckets with 16 sub-buckets per power of 2 (~6% relative error),
+    covering 0ns up to ~18 minutes. Each bucket is a LongAdder, so concurrent recorders don't fight over one cache line.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final LongAdder [] buckets = new LongAdder[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+
+    public LatencyHistogram() {
+        for (int i=0; i<buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        buckets[indexOf(Math.max(0, Math.min(nanos, MAX_VALUE)))].increment();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket: buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0.0 - 1.0), 0 when nothing was recorded
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i=0; i<buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i=0; i<counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return upperBoundOf(i);
+        }
+        return MAX_VALUE;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+};
+
+/*
+    Hot path recorder for CachingOrchestrator.
+    Counters are LongAdders (striped per contending thread). Latencies are sampled: only 1 in LATENCY_SAMPLE_RATE operations
+    reads the clock, since two System.nanoTime() calls alone cost more than the per operation recording budget.
+    Hits, misses and the sampling countdown, which every read touches, live in a RecorderCell per thread instead. Its owner is
+    the only writer, so an increment is a plain add published with lazySet, where even an uncontended LongAdder pays a CAS
+    that takes most of the budget. Readers sum the cells, and fold the cells of threads that have died into the base counts.
+ */
+class StatsCounter {
+    static final int LATENCY_SAMPLE_RATE = 64;
+
+    private static final class RecorderCell {
+        private final Thread owner;
+        private final AtomicLong hits = new AtomicLong(0);
+        private final AtomicLong misses = new AtomicLong(0);
+        // Operations left before the next timed one, random around LATENCY_SAMPLE_RATE so it can't lock onto a periodic workload
+        private int untilNextSample = nextSampleDistance();
+
+        private RecorderCell(Thread owner) {
+            this.owner = owner;
+        }
+    }
+
+    private final ThreadLocal <RecorderCell> recorderCells = ThreadLocal.withInitial(this::registerCell);
+    private final List <RecorderCell> liveCells = new ArrayList<>();
+    private final LongAdder hitCount = new LongAdder(); // Hits of threads that have died
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    // Returns a start timestamp for sampled operations, 0 for the ones that aren't timed
+    public long startTimer() {
+        RecorderCell cell = recorderCells.get();
+        if (--cell.untilNextSample > 0) return 0;
+        cell.untilNextSample = nextSampleDistance();
+        return System.nanoTime();
+    }
+
+    public void recordRead(long startNanos) {
+        if (startNanos != 0) readLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordWrite(long startNanos) {
+        if (startNanos != 0) writeLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordHit() {
+        AtomicLong hits = recorderCells.get().hits;
+        hits.lazySet(hits.get() + 1);
+    }
+
+    public void recordMiss() {
+        AtomicLong misses = recorderCells.get().misses;
+        misses.lazySet(misses.get() + 1);
+    }
+
+    public void recordEviction() {
+        evictionCount.increment();
+    }
+
+    public void recordExpiration() {
+        expirationCount.increment();
+    }
+
+    public void recordLoad(long loadNanos, boolean success) {
+        if (success) loadSuccessCount.increment();
+        else loadFailureCount.increment();
+        totalLoadTime.add(loadNanos);
+        loadLatency.record(loadNanos);
+    }
+
+    private RecorderCell registerCell() {
+        RecorderCell cell = new RecorderCell(Thread.currentThread());
+        synchronized (liveCells) {
+            liveCells.add(cell);
+        }
+        return cell;
+    }
+
+    // Uniform in [1, 2 * LATENCY_SAMPLE_RATE - 1], so one in LATENCY_SAMPLE_RATE operations is timed on average
+    private static int nextSampleDistance() {
+        return 1 + ThreadLocalRandom.current().nextInt(2 * LATENCY_SAMPLE_RATE - 1);
+    }
+
+    public CacheStats snapshot(int[] slotQueueDepths, int size, long weight, ArenaStats arenaStats) {
+        long hits = 0;
+        long misses = 0;
+        synchronized (liveCells) {
+            for (Iterator <RecorderCell> it = liveCells.iterator(); it.hasNext(); ) {
+                RecorderCell cell = it.next();
+                // Read after isAlive() returns false, so the dead owner's last increments are visible
+                boolean dead = !cell.owner.isAlive();
+                if (dead) {
+                    hitCount.add(cell.hits.get());
+                    missCount.add(cell.misses.get());
+                    it.remove();
+                }
+                else {
+                    hits += cell.hits.get();
+                    misses += cell.misses.get();
+                }
+            }
+        }
+        return new CacheStats(hitCount.sum() + hits, missCount.sum() + misses, evictionCount.sum(), expirationCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadTime.sum(),
+                readLatency.getPercentile(0.50), readLatency.getPercentile(0.99), readLatency.getPercentile(0.999),
+                writeLatency.getPercentile(0.50), writeLatency.getPercentile(0.99), writeLatency.getPercentile(0.999),
+                loadLatency.getPercentile(0.99), slotQueueDepths, size, weight, arenaStats);
+    }
+};
+
+// Immutable point-in-time statistics of a CachingOrchestrator, latencies are in nanoseconds
+class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long readP50;
+    private final long readP99;
+    private final long readP999;
+    private final long writeP50;
+    private final long writeP99;
+    private final long writeP999;
+    private final long loadP99;
+    private final int[] slotQueueDepths;
+    private final int size;
+    private final long weight;
+    private final ArenaStats arenaStats;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long expirationCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+                      long readP50, long readP99, long readP999, long writeP50, long writeP99, long writeP999, long loadP99,
+                      int[] slotQueueDepths, int size, long weight, ArenaStats arenaStats) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.readP50 = readP50;
+        this.readP99 = readP99;
+        this.readP999 = readP999;
+        this.writeP50 = writeP50;
+        this.writeP99 = writeP99;
+        this.writeP999 = writeP999;
+        this.loadP99 = loadP99;
+        this.slotQueueDepths = slotQueueDepths.clone();
+        this.size = size;
+        this.weight = weight;
+        this.arenaStats = arenaStats;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public double getMissRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 0.0 : (double) missCount / requests;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public double getAverageLoadPenalty() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    public long getReadP50() {
+        return readP50;
+    }
+
+    public long getReadP99() {
+        return readP99;
+    }
+
+    public long getReadP999() {
+        return readP999;
+    }
+
+    public long getWriteP50() {
+        return writeP50;
+    }
+
+    public long getWriteP99() {
+        return writeP99;
+    }
+
+    public long getWriteP999() {
+        return writeP999;
+    }
+
+    public long getLoadP99() {
+        return loadP99;
+    }
+
+    public int[] getSlotQueueDepths() {
+        return slotQueueDepths.clone();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    // Null unless the orchestrator runs on an OffHeapCache
+    public ArenaStats getArenaStats() {
+        return arenaStats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.2f%% evictions=%d expirations=%d loads=%d/%d avgLoad=%.0fns | " +
+                        "read p50/p99/p999=%d/%d/%dns write p50/p99/p999=%d/%d/%dns load p99=%dns | size=%d weight=%d queues=%s%s",
+                hitCount, missCount, getHitRate() * 100, evictionCount, expirationCount, loadSuccessCount, loadSuccessCount + loadFailureCount, getAverageLoadPenalty(),
+                readP50, readP99, readP999, writeP50, writeP99, writeP999, loadP99, size, weight, formatQueueDepths(),
+                arenaStats == null ? "" : " | arena: " + arenaStats);
+    }
+
+    // One number per slot is readable for the 10 platform slots, not for the 1024 slots of SlotExecutionMode.VIRTUAL
+    private String formatQueueDepths() {
+        if (slotQueueDepths.length <= 16) return Arrays.toString(slotQueueDepths);
+        int total = 0, max = 0;
+        for (int depth: slotQueueDepths) {
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        return "total " + total + " max " + max + " over " + slotQueueDepths.length + " slots";
+    }
+};
+
+// Why an entry left the cache
+enum RemovalCause {
+    // Made room for other entries
+    EVICTED,
+    // Removed by invalidate()
+    EXPLICIT,
+    // Overwritten by a newer value for the same key
+    REPLACED,
+    // Its TTL or expire-after-access deadline passed
+    EXPIRED
+};
+
+class RemovalNotification <K,V> {
+    private final K key;
+    private final V value;
+    private final RemovalCause cause;
+
+    public RemovalNotification(K key, V value, RemovalCause cause) {
+        this.key = key;
+        this.value = value;
+        this.cause = cause;
+    }
+
+    public K getKey() {
+        return key;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    public RemovalCause getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value + " (" + cause + ")";
+    }
+};
+
+interface RemovalListener <K,V> {
+    // Runs on the dispatcher thread, never on a thread that is reading or writing the cache
+    public void onRemoval(RemovalNotification <K,V> notification);
+};
+
+// What RemovalDispatcher does with a notification when its queue is full
+enum OverflowPolicy {
+    // The publishing slot task waits for room, so a slow listener slows down the cache's background work instead of losing events
+    BLOCK,
+    // The new notification is dropped and counted
+    DROP_NEWEST,
+    // The oldest queued notification is dropped to make room
+    DROP_OLDEST
+};
+
+/*
+    Delivers removal notifications to a listener on its own thread, so listeners never add latency to the cache.
+    - Notifications go into a bounded queue, the dispatcher takes them in batches of up to maxBatchSize and hands them to the
+      listener one by one. A listener that throws, even an Error, is counted and doesn't stop the dispatcher
+    - A full queue is handled by the OverflowPolicy, so a slow listener either applies backpressure or loses notifications,
+      and the counters tell which one is happening
+    With BLOCK, the listener must not call back into the cache, it could wait on a slot that is waiting on the queue.
+ */
+class RemovalDispatcher <K,V> {
+    private final RemovalListener <K,V> listener;
+    private final BlockingQueue <RemovalNotification <K,V>> queue;
+    private final int maxBatchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread dispatcherThread;
+    private volatile boolean running = true;
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicLong deliveredCount = new AtomicLong(0);
+    private final AtomicLong failedCount = new AtomicLong(0);
+    private final AtomicLong batchCount = new AtomicLong(0);
+
+    public RemovalDispatcher(RemovalListener <K,V> listener, int queueCapacity, int maxBatchSize, OverflowPolicy overflowPolicy) {
+        if (listener == null || overflowPolicy == null) throw new IllegalArgumentException("Listener and overflow policy cannot be null");
+        if (queueCapacity <= 0 || maxBatchSize <= 0) throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.dispatcherThread = new Thread(this::dispatch, "cache-removal-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    public void publish(RemovalNotification <K,V> notification) {
+        publishedCount.increment();
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(notification);
+                }
+                catch (InterruptedException ex) {
+                    droppedCount.increment();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(notification)) droppedCount.increment();
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(notification)) {
+                    if (queue.poll() != null) droppedCount.increment();
+                }
+                break;
+        }
+    }
+
+    private void dispatch() {
+        List <RemovalNotification <K,V>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RemovalNotification <K,V> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+            }
+            catch (InterruptedException ex) {
+                // shutdown() interrupts a listener that doesn't finish, whatever is still queued is dropped
+                break;
+            }
+            batchCount.incrementAndGet();
+            for (RemovalNotification <K,V> notification: batch) {
+                try {
+                    listener.onRemoval(notification);
+                    deliveredCount.incrementAndGet();
+                }
+                catch (Throwable ex) {
+                    // An Error too: a dead dispatcher would leave BLOCK publishers waiting on a full queue forever
+                    failedCount.incrementAndGet();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Delivers what is queued, waiting at most timeoutMillis for the listener
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        try {
+            dispatcherThread.join(timeoutMillis);
+            if (dispatcherThread.isAlive()) {
+                dispatcherThread.interrupt();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    // Notifications whose listener call threw
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("published=%d delivered=%d dropped=%d failed=%d batches=%d queued=%d",
+                getPublishedCount(), getDeliveredCount(), getDroppedCount(), getFailedCount(), getBatchCount(), getQueueDepth());
+    }
+};
+
+// How CachingOrchestrator runs the per-slot work that keeps mutations of a key in order
+enum SlotExecutionMode {
+    // 10 single-thread executors, a blocking database write holds up everything else on its slot
+    PLATFORM,
+    // 1024 lightweight serial queues sharing one elastic pool, so up to 1024 blocking database writes can overlap.
+    // The pool runs virtual threads on Java 21+. On older runtimes it's an unbounded cached pool of platform threads instead
+    VIRTUAL
+};
+
+/*
+    Runs its tasks one at a time and in submission order, borrowing a thread from a shared executor only while it has work.
+    An idle queue holds no thread, so there can be thousands of them (same idea as Guava's SequentialExecutor).
+    A busy queue gives its thread back every MAX_TASKS_PER_RUN tasks, so one hot queue can't starve the others.
+ */
+class SerialExecutor extends AbstractExecutorService {
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor backingExecutor;
+    private final Queue <Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean shutdown = false;
+
+    public SerialExecutor(Executor backingExecutor) {
+        if (backingExecutor == null) throw new IllegalArgumentException("Backing executor cannot be null");
+        this.backingExecutor = backingExecutor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) throw new RejectedExecutionException("Serial executor is shut down");
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                backingExecutor.execute(this::runTasks);
+            }
+            catch (RejectedExecutionException ex) {
+                scheduled.set(false);
+                throw ex;
+            }
+        }
+    }
+
+    private void runTasks() {
+        try {
+            Runnable task;
+            for (int i=0; i<MAX_TASKS_PER_RUN && (task = tasks.poll()) != null; i++) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException ex) {
+                    // Same as a pool thread dying on an uncaught exception, the next task still runs
+                    ex.printStackTrace();
+                }
+            }
+        }
+        finally {
+            scheduled.set(false);
+            // A task added after the last poll() may have seen scheduled == true and not scheduled us again.
+            // In the finally so that an Error, which goes on to kill the backing thread, doesn't strand the rest of the queue
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+            else {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Tasks waiting to run, not counting the one that is running
+    public int getQueueSize() {
+        return tasks.size();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List <Runnable> shutdownNow() {
+        shutdown = true;
+        List <Runnable> pending = new ArrayList<>();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            pending.add(task);
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && tasks.isEmpty() && !scheduled.get();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) return false;
+            wait(remainingMillis);
+        }
+        return true;
+    }
+};
+
+class CachingOrchestrator <K,V> {
+    private final Cache <K,V> cache;
+    private final Database <K,V>  database;
+    private final EvictionStrategy <K,V>  evictionStrategy;
+    private final WriteStrategy <K,V> writeStrategy;
+    // CHANGE: Capacity is enforced on total weight, entry count is kept as a metric
+    private final long MAX_WEIGHT;
+    // CHANGE: How far totalWeight may run past MAX_WEIGHT before writers have to evict inline, see reserveWeight()
+    private final long MAX_OVERSHOOT;
+    // How long a writer that found nothing to evict parks before it retries, doubling up to the max, see reserveWeight()
+    private final long MIN_RESERVE_BACKOFF_NANOS = 1_000;
+    private final long MAX_RESERVE_BACKOFF_NANOS = 1_000_000;
+    private final Weigher <K,V> weigher;
+    private final AtomicLong totalWeight = new AtomicLong(0);
+    private final Map <K, Integer> keyToWeightMapping = new ConcurrentHashMap<>();
+    // CHANGE: Depends on the SlotExecutionMode, 10 for PLATFORM and VIRTUAL_SLOT_COUNT for VIRTUAL
+    private final int THREAD_POOL_SIZE;
+    private final int VIRTUAL_SLOT_COUNT = 1024;
+    private final Map <Integer, ExecutorService> slotToExecutorMapping;
+    // Threads the VIRTUAL mode's serial queues run on, null in PLATFORM mode
+    private final ExecutorService slotWorkerPool;
+    // CHANGE: Entry count per slot instead of one shared counter, getCurrentSize() sums them
+    private final AtomicInteger [] slotSizes;
+    private final AtomicBoolean evictionDrainScheduled = new AtomicBoolean(false);
+    // CHANGE: Version of the latest admitted write per key. Bulk writes apply an entry only if it's still the latest, see writeAll()
+    private final AtomicLong writeSequence = new AtomicLong(0);
+    private final Map <K, Long> keyToWriteVersion = new ConcurrentHashMap<>();
+    // CHANGE: Version of the latest admitted write per key stripe. Unlike keyToWriteVersion it isn't dropped when the key
+    // is removed, so a load can tell that a write to its key was admitted while it ran even if that write was evicted since
+    private final int WRITE_STAMP_STRIPES = 4096;
+    private final AtomicLongArray writeStamps = new AtomicLongArray(WRITE_STAMP_STRIPES);
+    private static final long ANY_STAMP = -1;
+    // CHANGE: Number of queued or running mutations per key, lets read() skip the slot executor when nothing is in flight
+    private final Map <K, Integer> pendingMutations = new ConcurrentHashMap<>();
+    // CHANGE: Read-through support, null loader keeps the old behaviour of returning null on a miss
+    private final CacheLoader <K,V> loader;
+    private final Map <K, CompletableFuture <V>> inFlightLoads = new ConcurrentHashMap<>();
+    // CHANGE: Expiry support. Deadlines live in a timer wheel that a background ticker advances every EXPIRY_TICK_MILLIS.
+    // The ticker only starts with the first entry that can expire, a cache without TTLs never wakes up for it
+    private final long EXPIRY_TICK_MILLIS = 10;
+    private final AtomicBoolean expiryTickerStarted = new AtomicBoolean(false);
+    private final long startNanos = System.nanoTime();
+    private final long expireAfterAccessNanos;
+    private final TimerWheel <K> timerWheel = new TimerWheel<>(0);
+    // Runs the expiry ticker and the asynchronous eviction drain
+    private final ScheduledExecutorService maintenanceExecutor;
+    private final StatsCounter statsCounter = new StatsCounter();
+    // CHANGE: Refresh-after-write, off until enableRefreshAfterWrite() is called
+    private final int REFRESH_QUEUE_CAPACITY = 1024;
+    private volatile long refreshAfterWriteNanos = 0;
+    private volatile ThreadPoolExecutor refreshExecutor;
+    private final Map <K, Long> keyToWriteNanos = new ConcurrentHashMap<>();
+    private final Set <K> refreshingKeys = ConcurrentHashMap.newKeySet();
+    // CHANGE: Removal notifications, off until setRemovalListener() is called
+    private volatile RemovalDispatcher <K,V> removalDispatcher;
+
+    public CachingOrchestrator(Cache cache, Database database, EvictionStrategy evictionStrategy, WriteStrategy writeStrategy, int maxCapacity) {
+        this(cache, database, evictionStrategy, writeStrategy, maxCapacity, null);
+    }
+
+    public CachingOrchestrator(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, int maxCapacity, CacheLoader <K,V> loader) {
+        this(cache, database, evictionStrategy, writeStrategy, maxCapacity, loader, 0);
+    }
+
+    // expireAfterAccessMillis = 0 disables expire-after-access, per-entry TTLs are given to write(key, value, ttl, unit)
+    public CachingOrchestrator(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, int maxCapacity, CacheLoader <K,V> loader, long expireAfterAccessMillis) {
+        this(cache, database, evictionStrategy, writeStrategy, new SingletonWeigher<>(), maxCapacity, loader, expireAfterAccessMillis);
+    }
+
+    public CachingOrchestrator(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, Weigher <K,V> weigher, long maxWeight) {
+        this(cache, database, evictionStrategy, writeStrategy, weigher, maxWeight, null, 0);
+    }
+
+    public CachingOrchestrator(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, Weigher <K,V> weigher, long maxWeight, CacheLoader <K,V> loader, long expireAfterAccessMillis) {
+        this(cache, database, evictionStrategy, writeStrategy, weigher, maxWeight, loader, expireAfterAccessMillis, SlotExecutionMode.PLATFORM);
+    }
+
+    public CachingOrchestrator(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, Weigher <K,V> weigher, long maxWeight, CacheLoader <K,V> loader, long expireAfterAccessMillis, SlotExecutionMode executionMode) {
+        if (executionMode == null) throw new IllegalArgumentException("Execution mode cannot be null");
+        if (expireAfterAccessMillis < 0) throw new IllegalArgumentException("Expire after access cannot be negative");
+        if (weigher == null) throw new IllegalArgumentException("Weigher cannot be null");
+        if (maxWeight <= 0) throw new IllegalArgumentException("Max weight must be positive");
+        this.cache = cache;
+        this.database = database;
+        this.evictionStrategy = evictionStrategy;
+        this.writeStrategy = writeStrategy;
+        this.weigher = weigher;
+        this.MAX_WEIGHT = maxWeight;
+        this.MAX_OVERSHOOT = Math.max(1, maxWeight / 100);
+        this.loader = loader;
+        this.expireAfterAccessNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterAccessMillis);
+        this.THREAD_POOL_SIZE = executionMode == SlotExecutionMode.PLATFORM ? 10 : VIRTUAL_SLOT_COUNT;
+        this.slotWorkerPool = executionMode == SlotExecutionMode.PLATFORM ? null : newSlotWorkerPool();
+        this.slotToExecutorMapping = new ConcurrentHashMap<>();
+        this.slotSizes = new AtomicInteger[THREAD_POOL_SIZE];
+        for (int i=0; i<THREAD_POOL_SIZE; i++) {
+            if (slotWorkerPool == null) {
+                // CHANGE: Same as newSingleThreadExecutor(), but as a ThreadPoolExecutor so the stats can read its queue depth
+                slotToExecutorMapping.put(i, new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()));
+            }
+            else {
+                slotToExecutorMapping.put(i, new SerialExecutor(slotWorkerPool));
+            }
+            slotSizes[i] = new AtomicInteger(0);
+        }
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+        Virtual threads (Java 21+) when the runtime has them, looked up reflectively so this still compiles on Java 17.
+        Otherwise an unbounded cached pool of daemon platform threads named cache-slot-platform-worker: one thread per serial
+        queue that is running, so up to VIRTUAL_SLOT_COUNT (plus a few while a queue hands itself over) full platform threads
+        when every slot blocks at once. It isn't bounded because a SerialExecutor can't take a rejected hand-over.
+     */
+    private static ExecutorService newSlotWorkerPool() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "cache-slot-platform-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private int getSlot(int hash) {
+        return Math.abs(hash % THREAD_POOL_SIZE);
+    }
+
+    public void write(K key, V value) {
+        write(key, value, true, 0);
+    }
+
+    // Entry expires ttl after this write, unless it's rewritten before that
+    public void write(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl <= 0) throw new IllegalArgumentException("TTL must be positive");
+        write(key, value, true, unit.toNanos(ttl));
+    }
+
+    // persist = false only populates the cache, used for values that were just loaded from the database. ttlNanos = 0 means no TTL
+    private void write(K key, V value, boolean persist, long ttlNanos) {
+        write(key, value, persist, ttlNanos, ANY_STAMP);
+    }
+
+    // With an expectedStamp, the write is dropped if any write to the key's stripe was admitted since writeStamp() returned it
+    private void write(K key, V value, boolean persist, long ttlNanos, long expectedStamp) {
+        long startNanos = statsCounter.startTimer();
+        int slot = getSlot(key.hashCode());
+        int weight = weigh(key, value);
+        admit(key, value, slot, weight, expectedStamp, version -> slotToExecutorMapping.get(slot).execute(() -> applyWrite(key, value, persist, ttlNanos)));
+        if (totalWeight.get() > MAX_WEIGHT) {
+            scheduleEvictionDrain();
+        }
+        statsCounter.recordWrite(startNanos);
+    }
+
+    /*
+        CHANGE: Bulk write. Every key is admitted individually (capacity and eviction work exactly like write()), but the
+        entries are grouped by slot and each slot gets a single task, which hands its whole group to WriteStrategy.writeAll()
+        so a write-through pays one database round trip per slot instead of one per key.
+        The slot task is submitted after admission, so a single write() to one of the keys may get in between. Each admitted
+        entry carries a write version, and the task skips entries that are no longer the latest version of their key.
+     */
+    public void writeAll(Map <K,V> entries) {
+        writeAll(entries, true, Collections.emptyMap());
+    }
+
+    // Keys with an expected stamp are written like write() with that stamp, and left out if a newer write got in first
+    private void writeAll(Map <K,V> entries, boolean persist, Map <K, Long> expectedStamps) {
+        long startNanos = statsCounter.startTimer();
+        Map <K, Integer> weights = new HashMap<>();
+        for (Map.Entry <K,V> entry: entries.entrySet()) {
+            weights.put(entry.getKey(), weigh(entry.getKey(), entry.getValue()));
+        }
+
+        Map <Integer, Map <K,V>> slotToEntries = new HashMap<>();
+        Map <K, Long> versions = new HashMap<>();
+        for (Map.Entry <K,V> entry: entries.entrySet()) {
+            K key = entry.getKey();
+            int slot = getSlot(key.hashCode());
+            if (!admit(key, entry.getValue(), slot, weights.get(key), expectedStamps.getOrDefault(key, ANY_STAMP), version -> versions.put(key, version))) continue;
+            slotToEntries.computeIfAbsent(slot, k -> new LinkedHashMap<>()).put(key, entry.getValue());
+        }
+
+        for (Map.Entry <Integer, Map <K,V>> slotEntries: slotToEntries.entrySet()) {
+            Map <K,V> batch = slotEntries.getValue();
+            slotToExecutorMapping.get(slotEntries.getKey()).execute(() -> applyBatch(batch, versions, persist));
+        }
+        if (totalWeight.get() > MAX_WEIGHT) {
+            scheduleEvictionDrain();
+        }
+        statsCounter.recordWrite(startNanos);
+    }
+
+    private int weigh(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0 || weight > MAX_WEIGHT) throw new IllegalArgumentException("Entry weight " + weight + " is outside [0, " + MAX_WEIGHT + "]");
+        return weight;
+    }
+
+    /*
+        CHANGE: No global lock on the write path anymore.
+        - The weight budget is reserved up front with a CAS on totalWeight (reserveWeight), only for the weight delta
+        - The per-key bookkeeping (weight, entry count, eviction strategy, pending mutation, write version) happens inside
+          keyToWeightMapping.compute(), so it's atomic per key and only contends with writers hashing to the same bin.
+          onAdmitted also runs inside compute(), so a slot task submitted there is ordered exactly like the bookkeeping.
+        - If another writer changed the key between our read of its weight and compute(), the delta we reserved is wrong,
+          so we give it back and retry
+        - A conditional write (expectedStamp != ANY_STAMP) is checked inside compute() too. Every write stamps the key's stripe
+          there, and its slot task is queued there, so a loaded value can't be queued behind a newer write it didn't see
+        Membership comes from keyToWeightMapping instead of the cache, which is only written later on the slot executor.
+        Returns false if a conditional write was dropped.
+     */
+    private boolean admit(K key, V value, int slot, int weight, long expectedStamp, java.util.function.LongConsumer onAdmitted) {
+        int stripe = writeStripe(key);
+        while (true) {
+            Integer expectedWeight = keyToWeightMapping.get(key);
+            long delta = weight - (expectedWeight == null ? 0 : expectedWeight);
+            if (delta > 0) {
+                reserveWeight(delta);
+            }
+
+            boolean[] applied = {false};
+            boolean[] outdated = {false};
+            keyToWeightMapping.compute(key, (k, existingWeight) -> {
+                if (!Objects.equals(existingWeight, expectedWeight)) return existingWeight;
+                if (expectedStamp != ANY_STAMP && writeStamps.get(stripe) != expectedStamp) {
+                    outdated[0] = true;
+                    return existingWeight;
+                }
+                applied[0] = true;
+                beginMutation(key);
+                if (delta < 0) {
+                    totalWeight.addAndGet(delta);
+                }
+                if (existingWeight == null) {
+                    slotSizes[slot].incrementAndGet();
+                }
+                // The eviction strategy learns about the key right away, so concurrent writers always find a victim to evict
+                evictionStrategy.accessed(key, value);
+                long version = writeSequence.incrementAndGet();
+                keyToWriteVersion.put(key, version);
+                writeStamps.set(stripe, version);
+                if (refreshAfterWriteNanos > 0) {
+                    keyToWriteNanos.put(key, now());
+                }
+                onAdmitted.accept(version);
+                return weight;
+            });
+
+            if (applied[0]) return true;
+            if (delta > 0) {
+                totalWeight.addAndGet(-delta);
+            }
+            if (outdated[0]) return false;
+        }
+    }
+
+    private int writeStripe(K key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (WRITE_STAMP_STRIPES - 1);
+    }
+
+    // Taken before a cache lookup that may end in a load, see admit()
+    private long writeStamp(K key) {
+        return writeStamps.get(writeStripe(key));
+    }
+
+    /*
+        Lock-free admission. A writer may take budget as long as totalWeight stays within MAX_WEIGHT + MAX_OVERSHOOT, and the
+        asynchronous drain brings it back under MAX_WEIGHT afterwards. Only when the overshoot is used up does the writer evict
+        inline until its reservation fits. Every increment goes through this CAS check, so totalWeight never exceeds
+        MAX_WEIGHT + MAX_OVERSHOOT (1% of the budget, at least 1).
+     */
+    private void reserveWeight(long weight) {
+        long backoffNanos = MIN_RESERVE_BACKOFF_NANOS;
+        while (true) {
+            long current = totalWeight.get();
+            if (current + weight <= MAX_WEIGHT + MAX_OVERSHOOT) {
+                if (totalWeight.compareAndSet(current, current + weight)) return;
+            }
+            else if (!evictOne()) {
+                // Whatever is left is reserved by writers that haven't registered their key yet, they're about to.
+                // Park for a doubling but capped time instead of spinning, so waiting writers leave the CPU to them
+                LockSupport.parkNanos(backoffNanos);
+                backoffNanos = Math.min(backoffNanos * 2, MAX_RESERVE_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private void scheduleEvictionDrain() {
+        if (evictionDrainScheduled.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(() -> {
+                    evictionDrainScheduled.set(false);
+                    while (totalWeight.get() > MAX_WEIGHT && evictOne()) {
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                // Shutting down, nothing left to trim
+                evictionDrainScheduled.set(false);
+            }
+        }
+    }
+
+    // Returns false if the eviction strategy had nothing to offer
+    private boolean evictOne() {
+        // CHANGE: with an admission policy (TinyLfuEvictionStrategy) the returned key can be a rejected candidate instead of the LRU key, it's removed the same way
+        K evictedKey = evictionStrategy.evict();
+        if (evictedKey == null) return false;
+
+        int evictedSlot = getSlot(evictedKey.hashCode());
+        keyToWeightMapping.computeIfPresent(evictedKey, (k, evictedWeight) -> {
+            statsCounter.recordEviction();
+            keyToWriteVersion.remove(evictedKey);
+            keyToWriteNanos.remove(evictedKey);
+            totalWeight.addAndGet(-evictedWeight);
+            slotSizes[evictedSlot].decrementAndGet();
+            beginMutation(evictedKey);
+            slotToExecutorMapping.get(evictedSlot).execute(() -> {
+                try {
+                    V evictedValue = getValueForNotification(evictedKey);
+                    writeStrategy.beforeEvict(cache, database, evictedKey);
+                    cache.deleteByKey(evictedKey);
+                    timerWheel.cancel(evictedKey);
+                    notifyRemoval(evictedKey, evictedValue, RemovalCause.EVICTED);
+                }
+                finally {
+                    endMutation(evictedKey);
+                }
+            });
+            return null;
+        });
+        return true;
+    }
+
+    // Runs on the key's slot executor, beginMutation(key) must have been called by the submitter
+    private void applyWrite(K key, V value, boolean persist, long ttlNanos) {
+        try {
+            V replacedValue = getValueForNotification(key);
+            if (persist) {
+                writeStrategy.write(cache, database, key, value);
+            }
+            else {
+                cache.put(key, value);
+            }
+            scheduleExpiry(key, ttlNanos);
+            notifyRemoval(key, replacedValue, RemovalCause.REPLACED);
+        }
+        finally {
+            endMutation(key);
+        }
+    }
+
+    // Runs on the slot executor for one slot's share of a writeAll(), every key in the batch holds a pending mutation
+    private void applyBatch(Map <K,V> batch, Map <K, Long> versions, boolean persist) {
+        try {
+            Map <K,V> latest = new LinkedHashMap<>();
+            for (Map.Entry <K,V> entry: batch.entrySet()) {
+                if (Objects.equals(keyToWriteVersion.get(entry.getKey()), versions.get(entry.getKey()))) {
+                    latest.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Map <K,V> replacedValues = new HashMap<>();
+            if (removalDispatcher != null) {
+                for (K key: latest.keySet()) {
+                    V replacedValue = cache.getValue(key);
+                    if (replacedValue != null) replacedValues.put(key, replacedValue);
+                }
+            }
+            if (persist) {
+                writeStrategy.writeAll(cache, database, latest);
+            }
+            else {
+                latest.forEach(cache::put);
+            }
+            for (K key: latest.keySet()) {
+                scheduleExpiry(key, 0);
+            }
+            replacedValues.forEach((key, replacedValue) -> notifyRemoval(key, replacedValue, RemovalCause.REPLACED));
+        }
+        finally {
+            for (K key: batch.keySet()) {
+                endMutation(key);
+            }
+        }
+    }
+
+    /*
+        CHANGE: Reads no longer hop onto the slot executor for every call.
+        If no mutation for the key is queued or running, the cache already holds the latest value for it, so the lookup
+        happens directly on the caller thread (no handoff, no Future). Only when a write or eviction delete for the same key
+        is in flight do we fall back to the slot executor, which orders the read after it and keeps read-your-own-writes.
+     */
+    public V read(K key) {
+        long startNanos = statsCounter.startTimer();
+        // Before the lookup: a write admitted after it is one the lookup may have missed, and the load must not override it
+        long stamp = loader == null ? ANY_STAMP : writeStamp(key);
+        V val;
+        if (!pendingMutations.containsKey(key)) {
+            val = lookup(key);
+        }
+        else {
+            val = readOnSlot(key);
+        }
+
+        if (val != null) {
+            statsCounter.recordHit();
+        }
+        else {
+            statsCounter.recordMiss();
+            if (loader != null) {
+                val = load(key, stamp);
+            }
+        }
+        statsCounter.recordRead(startNanos);
+        return val;
+    }
+
+    /*
+        CHANGE: Bulk read. Keys without a pending mutation are served straight from the cache like read() does. The rest
+        are grouped by slot and looked up with one task per slot, which orders them after the queued writes.
+        With a loader, the misses go through loadAll(), which loads them in one CacheLoader.loadAll() call. Keys that are found
+        nowhere are left out.
+     */
+    public Map <K,V> readAll(Collection <K> keys) {
+        long startNanos = statsCounter.startTimer();
+        Map <K,V> result = new HashMap<>();
+        Map <K, Long> stamps = new HashMap<>();
+        Map <Integer, List <K>> slotToPendingKeys = new HashMap<>();
+        for (K key: keys) {
+            // Before the lookup, same as read()
+            if (loader != null) stamps.put(key, writeStamp(key));
+            if (!pendingMutations.containsKey(key)) {
+                V val = lookup(key);
+                if (val != null) result.put(key, val);
+            }
+            else {
+                slotToPendingKeys.computeIfAbsent(getSlot(key.hashCode()), k -> new ArrayList<>()).add(key);
+            }
+        }
+
+        List <Future <Map <K,V>>> slotLookups = new ArrayList<>();
+        for (Map.Entry <Integer, List <K>> slotKeys: slotToPendingKeys.entrySet()) {
+            List <K> pendingKeys = slotKeys.getValue();
+            slotLookups.add(slotToExecutorMapping.get(slotKeys.getKey()).submit(() -> {
+                Map <K,V> found = new HashMap<>();
+                for (K key: pendingKeys) {
+                    V val = lookup(key);
+                    if (val != null) found.put(key, val);
+                }
+                return found;
+            }));
+        }
+        try {
+            for (Future <Map <K,V>> slotLookup: slotLookups) {
+                result.putAll(slotLookup.get());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return result;
+        }
+        catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
+
+        List <K> missingKeys = new ArrayList<>();
+        for (K key: keys) {
+            if (result.containsKey(key)) statsCounter.recordHit();
+            else {
+                statsCounter.recordMiss();
+                missingKeys.add(key);
+            }
+        }
+
+        if (!missingKeys.isEmpty() && loader != null) {
+            result.putAll(loadAll(missingKeys, stamps));
+        }
+        statsCounter.recordRead(startNanos);
+        return result;
+    }
+
+    /*
+        Bulk counterpart of load(), with the same single-flight and stamp rules.
+        Keys another caller is already loading are waited on. The rest are claimed in inFlightLoads and loaded with one
+        CacheLoader.loadAll() call, then cached through writeAll() with their stamps before the futures are released.
+        Our own claims are completed before we wait on anybody else's, so two bulk loads with overlapping keys can't deadlock.
+     */
+    private Map <K,V> loadAll(List <K> keys, Map <K, Long> stamps) {
+        Map <K, CompletableFuture <V>> claimedLoads = new LinkedHashMap<>();
+        Map <K, CompletableFuture <V>> awaitedLoads = new HashMap<>();
+        for (K key: keys) {
+            CompletableFuture <V> loadFuture = new CompletableFuture<>();
+            CompletableFuture <V> inFlight = inFlightLoads.putIfAbsent(key, loadFuture);
+            if (inFlight == null) claimedLoads.put(key, loadFuture);
+            else awaitedLoads.put(key, inFlight);
+        }
+
+        Map <K,V> result = new HashMap<>();
+        if (!claimedLoads.isEmpty()) {
+            long loadStart = System.nanoTime();
+            try {
+                Map <K,V> loaded = loader.loadAll(new ArrayList<>(claimedLoads.keySet()));
+                statsCounter.recordLoad(System.nanoTime() - loadStart, true);
+                for (K key: claimedLoads.keySet()) {
+                    V val = loaded.get(key);
+                    if (val != null) result.put(key, val);
+                }
+                if (!result.isEmpty()) {
+                    writeAll(result, false, stamps);
+                }
+                claimedLoads.forEach((key, loadFuture) -> loadFuture.complete(result.get(key)));
+            }
+            catch (RuntimeException ex) {
+                statsCounter.recordLoad(System.nanoTime() - loadStart, false);
+                claimedLoads.values().forEach(loadFuture -> loadFuture.completeExceptionally(ex));
+                ex.printStackTrace();
+            }
+            finally {
+                claimedLoads.forEach(inFlightLoads::remove);
+            }
+        }
+
+        for (Map.Entry <K, CompletableFuture <V>> awaited: awaitedLoads.entrySet()) {
+            try {
+                V val = awaited.getValue().join();
+                if (val != null) result.put(awaited.getKey(), val);
+            }
+            catch (CompletionException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    /*
+        Read-through load with request coalescing (single-flight).
+        The first caller that misses on a key installs a CompletableFuture in inFlightLoads and runs the loader on its own thread,
+        every concurrent miss on the same key just waits on that future, so the database sees one load per key at a time.
+        The loaded value goes through the regular write path (capacity, eviction, slot ordering) without being written back to
+        the database, and is queued before the future is released so that later readers find it in the cache.
+        It is only cached if no write to the key was admitted since the caller's lookup (stamp). Such a write is newer than
+        what the loader read, even when it has already completed or been evicted again.
+     */
+    private V load(K key, long stamp) {
+        CompletableFuture <V> loadFuture = new CompletableFuture<>();
+        CompletableFuture <V> inFlight = inFlightLoads.putIfAbsent(key, loadFuture);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            }
+            catch (CompletionException ex) {
+                ex.printStackTrace();
+                return null;
+            }
+        }
+
+        long loadStart = System.nanoTime();
+        try {
+            V loaded = loader.load(key);
+            statsCounter.recordLoad(System.nanoTime() - loadStart, true);
+            if (loaded != null) {
+                write(key, loaded, false, 0, stamp);
+            }
+            loadFuture.complete(loaded);
+            return loaded;
+        }
+        catch (RuntimeException ex) {
+            statsCounter.recordLoad(System.nanoTime() - loadStart, false);
+            loadFuture.completeExceptionally(ex);
+            ex.printStackTrace();
+            return null;
+        }
+        finally {
+            inFlightLoads.remove(key, loadFuture);
+        }
+    }
+
+    // Ordered read through the key's slot executor, sees every mutation submitted for the key before it
+    V readOnSlot(K key) {
+        return callOnSlot(key, () -> lookup(key));
+    }
+
+    // CHANGE: Cache-only read for DistributedCache rebalancing: no stats, no loader, no eviction bookkeeping, same ordering as read()
+    V peek(K key) {
+        Callable <V> peek = () -> timerWheel.getDeadline(key) <= now() ? null : cache.getValue(key);
+        if (!pendingMutations.containsKey(key)) {
+            try {
+                return peek.call();
+            }
+            catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return callOnSlot(key, peek);
+    }
+
+    // CHANGE: Cache-only write for DistributedCache rebalancing and replicas, the database already has the value. Drops any TTL
+    void populate(K key, V value) {
+        write(key, value, false, 0);
+    }
+
+    // CHANGE: Cache-only bulk write for snapshot restores, entries are admitted in iteration order
+    void populateAll(Map <K,V> entries) {
+        writeAll(entries, false, Collections.emptyMap());
+    }
+
+    // CHANGE: Admitted keys from coldest to hottest for snapshots. Keys the eviction strategy doesn't order come first
+    List <K> getKeysInEvictionOrder() {
+        List <K> ordered = evictionStrategy.getKeysInEvictionOrder();
+        Set <K> unordered = keySet();
+        List <K> orderedKeys = new ArrayList<>(ordered.size());
+        for (K key: ordered) {
+            // Not removeAll(ordered), that's a linear contains() per key when the set is larger than the list
+            if (unordered.remove(key)) orderedKeys.add(key);
+        }
+        List <K> keys = new ArrayList<>(unordered);
+        keys.addAll(orderedKeys);
+        return keys;
+    }
+
+    private V callOnSlot(K key, Callable <V> task) {
+        int slot = getSlot(key.hashCode());
+        ExecutorService executor = slotToExecutorMapping.get(slot);
+
+        Future <V> value = executor.submit(task);
+
+        try {
+            return value.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    // Cache lookup shared by both read paths: an entry past its deadline is a miss even if the ticker hasn't removed it yet
+    private V lookup(K key) {
+        V val = cache.getValue(key);
+        if (val == null) return null;
+
+        long now = now();
+        if (timerWheel.getDeadline(key) <= now) return null;
+        evictionStrategy.accessed(key, val);
+        if (expireAfterAccessNanos > 0) {
+            timerWheel.touch(key, now + expireAfterAccessNanos);
+        }
+        if (refreshAfterWriteNanos > 0) {
+            refreshIfStale(key, now);
+        }
+        return val;
+    }
+
+    /*
+        CHANGE: Refresh-ahead (stale-while-revalidate).
+        Once an entry is older than refreshAfterWrite, the next read still gets the cached value right away but also queues a
+        reload on the refresh pool, so no reader ever waits on the loader for a key that's already cached.
+        - At most one refresh per key is queued or running, tracked in refreshingKeys
+        - The pool and its queue are bounded, a refresh that doesn't fit is skipped and retried by a later read
+        - The reloaded value goes through the regular write path (not persisted), a write that raced with it wins (see admit())
+        - A failed refresh, or one the loader has no value for, keeps the old value, and the entry isn't retried before another
+          refreshAfterWrite has passed
+        Only entries written after the refresh was enabled carry a write time, older ones aren't refreshed until rewritten.
+     */
+    public synchronized void enableRefreshAfterWrite(long refreshAfterWrite, TimeUnit unit, int maxConcurrentRefreshes) {
+        if (loader == null) throw new IllegalStateException("Refresh-after-write needs a CacheLoader");
+        if (refreshExecutor != null) throw new IllegalStateException("Refresh-after-write is already enabled");
+        if (refreshAfterWrite <= 0) throw new IllegalArgumentException("Refresh interval must be positive");
+        if (maxConcurrentRefreshes <= 0) throw new IllegalArgumentException("Max concurrent refreshes must be positive");
+        this.refreshExecutor = new ThreadPoolExecutor(maxConcurrentRefreshes, maxConcurrentRefreshes, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+    }
+
+    private void refreshIfStale(K key, long now) {
+        Long writeNanos = keyToWriteNanos.get(key);
+        if (writeNanos == null || now - writeNanos < refreshAfterWriteNanos) return;
+        if (!refreshingKeys.add(key)) return;
+        try {
+            refreshExecutor.execute(() -> refresh(key));
+        }
+        catch (RejectedExecutionException ex) {
+            // Pool is saturated or shutting down, keep serving the current value
+            refreshingKeys.remove(key);
+        }
+    }
+
+    // Runs on the refresh pool
+    private void refresh(K key) {
+        // Before the load, same as read()
+        long stamp = writeStamp(key);
+        long loadStart = System.nanoTime();
+        try {
+            V loaded = loader.load(key);
+            statsCounter.recordLoad(System.nanoTime() - loadStart, true);
+            if (loaded == null) {
+                // Nothing to refresh with, back off like on a failure instead of reloading on every read
+                keyToWriteNanos.computeIfPresent(key, (k, writeNanos) -> now());
+                return;
+            }
+            // The refreshed value keeps the entry's remaining TTL
+            long ttlDeadline = timerWheel.getTtlDeadline(key);
+            long ttlNanos = ttlDeadline == Long.MAX_VALUE ? 0 : ttlDeadline - now();
+            boolean expiring = ttlDeadline != Long.MAX_VALUE && ttlNanos <= 0;
+            // Skip keys that were evicted or expired while the load ran, the stamp skips the ones that were rewritten
+            if (!expiring && keyToWeightMapping.containsKey(key)) {
+                write(key, loaded, false, ttlNanos, stamp);
+            }
+        }
+        catch (RuntimeException ex) {
+            statsCounter.recordLoad(System.nanoTime() - loadStart, false);
+            // Back off, the old value stays and the next attempt waits for another refreshAfterWrite
+            keyToWriteNanos.computeIfPresent(key, (k, writeNanos) -> now());
+        }
+        finally {
+            refreshingKeys.remove(key);
+        }
+    }
+
+    private void scheduleExpiry(K key, long ttlNanos) {
+        long now = now();
+        long ttlDeadline = ttlNanos > 0 ? now + ttlNanos : Long.MAX_VALUE;
+        long accessDeadline = expireAfterAccessNanos > 0 ? now + expireAfterAccessNanos : Long.MAX_VALUE;
+        if (ttlDeadline == Long.MAX_VALUE && accessDeadline == Long.MAX_VALUE) {
+            timerWheel.cancel(key);
+        }
+        else {
+            timerWheel.schedule(key, ttlDeadline, Math.min(ttlDeadline, accessDeadline));
+            startExpiryTicker();
+        }
+    }
+
+    private void startExpiryTicker() {
+        if (expiryTickerStarted.get() || !expiryTickerStarted.compareAndSet(false, true)) return;
+        try {
+            maintenanceExecutor.scheduleWithFixedDelay(this::expireEntries, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ex) {
+            // Shutting down, nothing left to expire
+        }
+    }
+
+    // Runs on the expiry ticker, removals are handed to the key's slot executor to stay ordered with writes
+    private void expireEntries() {
+        try {
+            timerWheel.advance(now(), key -> {
+                beginMutation(key);
+                slotToExecutorMapping.get(getSlot(key.hashCode())).execute(() -> {
+                    try {
+                        removeExpired(key);
+                    }
+                    finally {
+                        endMutation(key);
+                    }
+                });
+            });
+        }
+        catch (RuntimeException ex) {
+            // Don't let one failure cancel the periodic task
+            ex.printStackTrace();
+        }
+    }
+
+    /*
+        Runs on the key's slot executor. compute() makes the check and the unlinking atomic with respect to write() for the key.
+        The side effects run after it: beforeEvict() can block on the database, and compute() holds the map bin's lock, which
+        would stall every writer hashing to the same bin. A write admitted in between queues its slot task behind this one,
+        and readers are sent to the slot by our pending mutation, so nobody sees the entry half removed.
+     */
+    private void removeExpired(K key) {
+        int slot = getSlot(key.hashCode());
+        boolean[] expired = {false};
+        keyToWeightMapping.computeIfPresent(key, (k, weight) -> {
+            // Another mutation for the key is queued behind us, it will rewrite the entry and reschedule its expiry
+            if (pendingMutations.getOrDefault(key, 0) > 1) return weight;
+            if (!timerWheel.removeIfExpired(key, now())) return weight;
+            expired[0] = true;
+            keyToWriteVersion.remove(key);
+            keyToWriteNanos.remove(key);
+            totalWeight.addAndGet(-weight);
+            slotSizes[slot].decrementAndGet();
+            evictionStrategy.remove(key);
+            statsCounter.recordExpiration();
+            return null;
+        });
+        if (!expired[0]) return;
+        V expiredValue = getValueForNotification(key);
+        writeStrategy.beforeEvict(cache, database, key);
+        cache.deleteByKey(key);
+        // With OverflowPolicy.BLOCK publishing can wait
+        notifyRemoval(key, expiredValue, RemovalCause.EXPIRED);
+    }
+
+    /*
+        CHANGE: Drops the cached entry without deleting it from the database. Bookkeeping is undone inside compute() like an
+        eviction, and the delete runs on the slot executor behind the key's pending writes. A write-back strategy still
+        persists a dirty key first (beforeEvict), so nothing acknowledged is lost.
+     */
+    public void invalidate(K key) {
+        int slot = getSlot(key.hashCode());
+        keyToWeightMapping.computeIfPresent(key, (k, weight) -> {
+            keyToWriteVersion.remove(key);
+            keyToWriteNanos.remove(key);
+            totalWeight.addAndGet(-weight);
+            slotSizes[slot].decrementAndGet();
+            evictionStrategy.remove(key);
+            beginMutation(key);
+            slotToExecutorMapping.get(slot).execute(() -> {
+                try {
+                    V removedValue = getValueForNotification(key);
+                    writeStrategy.beforeEvict(cache, database, key);
+                    cache.deleteByKey(key);
+                    timerWheel.cancel(key);
+                    notifyRemoval(key, removedValue, RemovalCause.EXPLICIT);
+                }
+                finally {
+                    endMutation(key);
+                }
+            });
+            return null;
+        });
+    }
+
+    /*
+        CHANGE: Removal notifications. Every removal is published from the slot task that removes the entry (or from the
+        expiry ticker), never from the write()/read() caller, and delivered by a RemovalDispatcher on its own thread.
+        The returned dispatcher exposes the delivery metrics.
+     */
+    public synchronized RemovalDispatcher <K,V> setRemovalListener(RemovalListener <K,V> listener, int queueCapacity, int maxBatchSize, OverflowPolicy overflowPolicy) {
+        if (removalDispatcher != null) throw new IllegalStateException("A removal listener is already set");
+        this.removalDispatcher = new RemovalDispatcher<>(listener, queueCapacity, maxBatchSize, overflowPolicy);
+        return removalDispatcher;
+    }
+
+    // Reading the old value costs a lookup, only paid when someone listens
+    private V getValueForNotification(K key) {
+        return removalDispatcher == null ? null : cache.getValue(key);
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        RemovalDispatcher <K,V> dispatcher = removalDispatcher;
+        if (dispatcher != null && value != null) {
+            dispatcher.publish(new RemovalNotification<>(key, value, cause));
+        }
+    }
+
+    // Snapshot of the admitted keys, including writes that are still queued on their slot
+    public Set <K> keySet() {
+        return new HashSet<>(keyToWeightMapping.keySet());
+    }
+
+    private long now() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private void beginMutation(K key) {
+        pendingMutations.merge(key, 1, Integer::sum);
+    }
+
+    private void endMutation(K key) {
+        pendingMutations.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    // CHANGED: Added utility methods for testing
+    public int getCurrentSize() {
+        int total = 0;
+        for (AtomicInteger slotSize: slotSizes) {
+            total += slotSize.get();
+        }
+        return total;
+    }
+
+    // Same as the entry capacity when using SingletonWeigher
+    public int getMaxCapacity() {
+        return (int) Math.min(MAX_WEIGHT, Integer.MAX_VALUE);
+    }
+
+    public long getCurrentWeight() {
+        return totalWeight.get();
+    }
+
+    public long getMaxWeight() {
+        return MAX_WEIGHT;
+    }
+
+    public long getMaxOvershoot() {
+        return MAX_OVERSHOOT;
+    }
+
+    public CacheStats getStats() {
+        int[] slotQueueDepths = new int[THREAD_POOL_SIZE];
+        for (int i=0; i<THREAD_POOL_SIZE; i++) {
+            ExecutorService executor = slotToExecutorMapping.get(i);
+            if (executor instanceof ThreadPoolExecutor) {
+                slotQueueDepths[i] = ((ThreadPoolExecutor) executor).getQueue().size();
+            }
+            else if (executor instanceof SerialExecutor) {
+                slotQueueDepths[i] = ((SerialExecutor) executor).getQueueSize();
+            }
+        }
+        ArenaStats arenaStats = cache instanceof OffHeapCache ? ((OffHeapCache <K,V>) cache).getStats() : null;
+        return statsCounter.snapshot(slotQueueDepths, getCurrentSize(), getCurrentWeight(), arenaStats);
+    }
+
+    // Hands a fresh snapshot to the reporter every period, until shutdown
+    public void startStatsReporting(long period, TimeUnit unit, java.util.function.Consumer <CacheStats> reporter) {
+        if (reporter == null) throw new IllegalArgumentException("Reporter cannot be null");
+        maintenanceExecutor.scheduleAtFixedRate(() -> {
+            try {
+                reporter.accept(getStats());
+            }
+            catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }, period, period, unit);
+    }
+
+    public void shutdown() {
+        maintenanceExecutor.shutdownNow();
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        for (ExecutorService executor : slotToExecutorMapping.values()) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Only now, the serial queues above needed its threads to finish their work
+        if (slotWorkerPool != null) {
+            slotWorkerPool.shutdown();
+        }
+        // After the slots, so the notifications of their last removals still get delivered
+        if (removalDispatcher != null) {
+            removalDispatcher.shutdown(5_000);
+        }
+        writeStrategy.shutdown(database);
+    }
+};
+
+/*
+    Consistent-hash ring (Karger et al.) with virtual nodes.
+    - Every node is hashed onto the ring virtualNodes times, a key belongs to the first virtual node clockwise from its hash
+    - Adding or removing a node only moves the keys of the arcs it gains or loses, about 1/N of them, instead of nearly all
+      keys like hash % N would
+    - Many virtual nodes per node even out the arc lengths, so the load stays balanced without any coordination
+    Not thread safe, DistributedCache guards it with its own lock.
+ */
+class ConsistentHashRing {
+    private final int virtualNodes;
+    private final TreeMap <Long, String> ring = new TreeMap<>();
+    private final Set <String> nodeIds = new LinkedHashSet<>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0) throw new IllegalArgumentException("Virtual nodes must be positive");
+        this.virtualNodes = virtualNodes;
+    }
+
+    public void addNode(String nodeId) {
+        if (!nodeIds.add(nodeId)) throw new IllegalArgumentException("Node " + nodeId + " is already on the ring");
+        for (int i=0; i<virtualNodes; i++) {
+            // Colliding virtual nodes are vanishingly rare with 64 bit hashes, the later one just wins the point
+            ring.put(hash(nodeId + "#" + i), nodeId);
+        }
+    }
+
+    public void removeNode(String nodeId) {
+        if (!nodeIds.remove(nodeId)) throw new IllegalArgumentException("Node " + nodeId + " is not on the ring");
+        ring.values().removeIf(nodeId::equals);
+    }
+
+    // The first count distinct nodes clockwise from the key, the first one is the primary owner
+    public List <String> getNodes(Object key, int count) {
+        List <String> owners = new ArrayList<>(count);
+        if (ring.isEmpty()) return owners;
+        long keyHash = mix(key.hashCode());
+        int wanted = Math.min(count, nodeIds.size());
+        for (String nodeId: ring.tailMap(keyHash).values()) {
+            if (owners.size() == wanted) return owners;
+            if (!owners.contains(nodeId)) owners.add(nodeId);
+        }
+        for (String nodeId: ring.values()) {
+            if (owners.size() == wanted) return owners;
+            if (!owners.contains(nodeId)) owners.add(nodeId);
+        }
+        return owners;
+    }
+
+    public Set <String> getNodeIds() {
+        return Collections.unmodifiableSet(nodeIds);
+    }
+
+    // FNV-1a over the characters, then finalized like murmur3 so that similar ids land far apart
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i=0; i<value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // murmur3 fmix64
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ef63L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+};
+
+/*
+    Spreads keys over several CachingOrchestrator nodes with a consistent-hash ring, so the cache can grow past one node's
+    capacity. All nodes sit in front of the same database.
+    - write() goes through the primary owner (which persists it), replicas are only populated
+    - read() asks the primary, and the replicas if the primary misses
+    - addNode()/removeNode() hand the moved entries over to their new owners before dropping them from nodes that no longer
+      own them, so a rebalance doesn't turn into a burst of database loads and no node is left with a stale copy
+    Reads and writes share the read lock, a rebalance takes the write lock.
+    The fan-out of a write holds its key's stripe of keyLocks, so every owner admits the writes to a key in the same order and
+    no replica ends up with an older value than its primary. A read that falls back to the replicas takes the stripe too, so
+    it never catches a replica that a write in flight hasn't reached yet.
+ */
+class DistributedCache <K,V> {
+    private static final int KEY_LOCK_STRIPES = 256;
+
+    private final ConsistentHashRing ring;
+    private final int replicationFactor;
+    private final Map <String, CachingOrchestrator <K,V>> nodeIdToNodeMapping = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock ringLock = new ReentrantReadWriteLock();
+    private final Object[] keyLocks = new Object[KEY_LOCK_STRIPES];
+
+    public DistributedCache(int virtualNodes, int replicationFactor) {
+        if (replicationFactor <= 0) throw new IllegalArgumentException("Replication factor must be positive");
+        this.ring = new ConsistentHashRing(virtualNodes);
+        this.replicationFactor = replicationFactor;
+        for (int i=0; i<KEY_LOCK_STRIPES; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    public void write(K key, V value) {
+        ringLock.readLock().lock();
+        try {
+            List <String> owners = getOwners(key);
+            synchronized (keyLock(key)) {
+                nodeIdToNodeMapping.get(owners.get(0)).write(key, value);
+                for (int i=1; i<owners.size(); i++) {
+                    nodeIdToNodeMapping.get(owners.get(i)).populate(key, value);
+                }
+            }
+        }
+        finally {
+            ringLock.readLock().unlock();
+        }
+    }
+
+    public V read(K key) {
+        ringLock.readLock().lock();
+        try {
+            List <String> owners = getOwners(key);
+            V val = nodeIdToNodeMapping.get(owners.get(0)).read(key);
+            if (val != null || owners.size() == 1) return val;
+            synchronized (keyLock(key)) {
+                for (int i=1; val == null && i<owners.size(); i++) {
+                    val = nodeIdToNodeMapping.get(owners.get(i)).read(key);
+                }
+            }
+            return val;
+        }
+        finally {
+            ringLock.readLock().unlock();
+        }
+    }
+
+    // Returns the number of cached keys whose owners changed
+    public int addNode(String nodeId, CachingOrchestrator <K,V> node) {
+        if (node == null) throw new IllegalArgumentException("Node cannot be null");
+        ringLock.writeLock().lock();
+        try {
+            ring.addNode(nodeId);
+            nodeIdToNodeMapping.put(nodeId, node);
+            return rebalance(new ArrayList<>(nodeIdToNodeMapping.keySet()));
+        }
+        finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+
+    // Returns the number of cached keys whose owners changed. The removed node is left running, the caller shuts it down
+    public int removeNode(String nodeId) {
+        ringLock.writeLock().lock();
+        try {
+            if (ring.getNodeIds().size() == 1 && ring.getNodeIds().contains(nodeId)) {
+                throw new IllegalArgumentException("Cannot remove the last node");
+            }
+            ring.removeNode(nodeId);
+            int moved = rebalance(new ArrayList<>(nodeIdToNodeMapping.keySet()));
+            nodeIdToNodeMapping.remove(nodeId);
+            return moved;
+        }
+        finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+
+    // Runs under the write lock. sourceNodeIds may include a node that's already off the ring, its keys all move
+    private int rebalance(List <String> sourceNodeIds) {
+        Set <K> movedKeys = new HashSet<>();
+        for (String sourceNodeId: sourceNodeIds) {
+            CachingOrchestrator <K,V> source = nodeIdToNodeMapping.get(sourceNodeId);
+            for (K key: source.keySet()) {
+                V value = source.peek(key);
+                if (value == null) continue;
+                List <String> owners = getOwners(key);
+                for (String ownerId: owners) {
+                    CachingOrchestrator <K,V> owner = nodeIdToNodeMapping.get(ownerId);
+                    if (owner != source && owner.peek(key) == null) {
+                        owner.populate(key, value);
+                        movedKeys.add(key);
+                    }
+                }
+                if (!owners.contains(sourceNodeId)) {
+                    source.invalidate(key);
+                    movedKeys.add(key);
+                }
+            }
+        }
+        return movedKeys.size();
+    }
+
+    private Object keyLock(K key) {
+        int hash = key.hashCode();
+        return keyLocks[(hash ^ (hash >>> 16)) & (KEY_LOCK_STRIPES - 1)];
+    }
+
+    private List <String> getOwners(K key) {
+        List <String> owners = ring.getNodes(key, replicationFactor);
+        if (owners.isEmpty()) throw new IllegalStateException("No nodes in the distributed cache");
+        return owners;
+    }
+
+    public int getNodeCount() {
+        return nodeIdToNodeMapping.size();
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    // Entries over all nodes, a replicated key counts once per copy
+    public int getCurrentSize() {
+        int total = 0;
+        for (CachingOrchestrator <K,V> node: nodeIdToNodeMapping.values()) {
+            total += node.getCurrentSize();
+        }
+        return total;
+    }
+
+    public void shutdown() {
+        for (CachingOrchestrator <K,V> node: nodeIdToNodeMapping.values()) {
+            node.shutdown();
+        }
+    }
+};
+
+/*
+    Bounded LRU cache from long to long that never boxes and allocates nothing per entry.
+    - Entries live in parallel primitive arrays (keys, values, prev, next) indexed by an entry id, the LRU list is threaded
+      through prev/next as ids, and free ids are chained through next
+    - The hash table is an int array of entry ids (+1, 0 = empty) with linear probing. Removal uses backward-shift deletion,
+      so there are no tombstones and probe lengths don't degrade. Moving a table slot doesn't touch the LRU links
+    - The table has at least twice as many slots as the capacity, so the load factor stays at or below 0.5
+    Semantics follow CachingOrchestrator: write() inserts or updates and evicts the least recently used entry when full,
+    read() refreshes recency. All methods are synchronized, like LRUEvictionStrategy, since reads reorder the list too.
+ */
+class LongLongCache {
+    private static final int NIL = -1;
+
+    private final int capacity;
+    private final long [] keys;
+    private final long [] values;
+    private final int [] prev;
+    private final int [] next;
+    private final int [] table;
+    private final int mask;
+    private int size = 0;
+    // Most and least recently used entry ids
+    private int head = NIL;
+    private int tail = NIL;
+    private int freeHead = 0;
+    private long evictionCount = 0;
+
+    public LongLongCache(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 29)) throw new IllegalArgumentException("Capacity must be in [1, 2^29]");
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+        for (int i=0; i<capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NIL;
+        }
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.table = new int[Math.max(2, tableSize)];
+        this.mask = table.length - 1;
+    }
+
+    // defaultValue is returned on a miss, pick one that can't be a real value
+    public synchronized long read(long key, long defaultValue) {
+        int slot = findSlot(key);
+        if (slot == NIL) return defaultValue;
+        int entry = table[slot] - 1;
+        moveToFront(entry);
+        return values[entry];
+    }
+
+    public synchronized boolean contains(long key) {
+        return findSlot(key) != NIL;
+    }
+
+    public synchronized void write(long key, long value) {
+        int slot = findSlot(key);
+        if (slot != NIL) {
+            int entry = table[slot] - 1;
+            values[entry] = value;
+            moveToFront(entry);
+            return;
+        }
+        if (size == capacity) {
+            remove(findSlot(keys[tail]));
+            evictionCount++;
+        }
+        int entry = freeHead;
+        freeHead = next[entry];
+        keys[entry] = key;
+        values[entry] = value;
+        linkFront(entry);
+        int index = hash(key) & mask;
+        while (table[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        table[index] = entry + 1;
+        size++;
+    }
+
+    public synchronized boolean delete(long key) {
+        int slot = findSlot(key);
+        if (slot == NIL) return false;
+        remove(slot);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    // Table slot holding the key, or NIL
+    private int findSlot(long key) {
+        int index = hash(key) & mask;
+        while (table[index] != 0) {
+            if (keys[table[index] - 1] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return NIL;
+    }
+
+    private void remove(int slot) {
+        int entry = table[slot] - 1;
+        unlink(entry);
+        next[entry] = freeHead;
+        freeHead = entry;
+        size--;
+
+        // Backward-shift deletion: pull later entries of the probe run into the hole unless that would put them before their home slot
+        int hole = slot;
+        table[hole] = 0;
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (table[index] == 0) return;
+            int home = hash(keys[table[index] - 1]) & mask;
+            boolean homeBetweenHoleAndIndex = hole <= index ? (hole < home && home <= index) : (hole < home || home <= index);
+            if (!homeBetweenHoleAndIndex) {
+                table[hole] = table[index];
+                table[index] = 0;
+                hole = index;
+            }
+        }
+    }
+
+    private void moveToFront(int entry) {
+        if (entry == head) return;
+        unlink(entry);
+        linkFront(entry);
+    }
+
+    private void linkFront(int entry) {
+        prev[entry] = NIL;
+        next[entry] = head;
+        if (head != NIL) prev[head] = entry;
+        head = entry;
+        if (tail == NIL) tail = entry;
+    }
+
+    private void unlink(int entry) {
+        if (prev[entry] != NIL) next[prev[entry]] = next[entry];
+        else head = next[entry];
+        if (next[entry] != NIL) prev[next[entry]] = prev[entry];
+        else tail = prev[entry];
+    }
+
+    // murmur3 fmix64, sequential ids would otherwise form one long probe run
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb93fe53ef63L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+};
+
+/*
+    Saves the contents of a CachingOrchestrator to a file and loads them back on boot, so a restart starts warm.
+    - Entries are written coldest first in the eviction strategy's order (LRU order for LRUEvictionStrategy), and restored
+      in the same order, so the restored cache evicts the same keys first. A restore into a smaller cache keeps the hottest
+    - Only the key order is copied under the strategy's lock, values are then read entry by entry with the normal per-key
+      ordering, so writes keep going while the snapshot runs. Entries written after the key copy may or may not be included
+    - The file is written through memory-mapped regions of a FileChannel into a temp file that replaces the previous
+      snapshot atomically, so a crash mid-snapshot leaves the last complete one in place
+    - TTLs and expire-after-access deadlines aren't saved, restored entries start without them
+    Format: magic, format version, entry count, then per entry the key length, value length, key bytes and value bytes.
+ */
+class CacheSnapshotter <K,V> {
+    private static final int MAGIC = 0x43534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAPPING_SIZE = 64 << 20;
+    private static final int RESTORE_BATCH_SIZE = 1024;
+
+    private final ValueCodec <K> keyCodec;
+    private final ValueCodec <V> valueCodec;
+    private final ExecutorService snapshotExecutor;
+
+    public CacheSnapshotter(ValueCodec <K> keyCodec, ValueCodec <V> valueCodec) {
+        if (keyCodec == null || valueCodec == null) throw new IllegalArgumentException("Codecs cannot be null");
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Runs the snapshot on the snapshotter's background thread, completes with the number of entries written
+    public CompletableFuture <Long> snapshotAsync(CachingOrchestrator <K,V> orchestrator, Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return snapshot(orchestrator, file);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, snapshotExecutor);
+    }
+
+    public long snapshot(CachingOrchestrator <K,V> orchestrator, Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long regionStart = 0;
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, MAPPING_SIZE);
+            region.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(0);
+            for (K key: orchestrator.getKeysInEvictionOrder()) {
+                V value = orchestrator.peek(key);
+                if (value == null) continue; // Evicted or expired since the keys were copied
+                byte[] keyBytes = keyCodec.encode(key);
+                byte[] valueBytes = valueCodec.encode(value);
+                int recordSize = 8 + keyBytes.length + valueBytes.length;
+                if (region.remaining() < recordSize) {
+                    regionStart += region.position();
+                    region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(MAPPING_SIZE, recordSize));
+                }
+                region.putInt(keyBytes.length).putInt(valueBytes.length).put(keyBytes).put(valueBytes);
+                count++;
+            }
+            long size = regionStart + region.position();
+            region.force();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 8, 8);
+            header.putLong(count);
+            header.force();
+            // Drop the unused tail of the last region
+            channel.truncate(size);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    // Loads a snapshot into a freshly created orchestrator, returns the number of entries read. A missing file is a cold start
+    public long restore(CachingOrchestrator <K,V> orchestrator, Path file) throws IOException {
+        if (!Files.exists(file)) return 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) throw new IOException("Snapshot " + file + " is too small");
+            long regionStart = 0;
+            MappedByteBuffer region = map(channel, regionStart, HEADER_SIZE);
+            if (region.getInt() != MAGIC) throw new IOException("Not a cache snapshot: " + file);
+            int formatVersion = region.getInt();
+            if (formatVersion != FORMAT_VERSION) throw new IOException("Unsupported snapshot format " + formatVersion);
+            long count = region.getLong();
+
+            Map <K,V> batch = new LinkedHashMap<>();
+            for (long i=0; i<count; i++) {
+                if (region.remaining() < 8) {
+                    regionStart += region.position();
+                    region = map(channel, regionStart, 8);
+                }
+                int keyLength = region.getInt();
+                int valueLength = region.getInt();
+                if (keyLength < 0 || valueLength < 0) throw new IOException("Corrupt record " + i + " in " + file);
+                if (region.remaining() < keyLength + valueLength) {
+                    regionStart += region.position();
+                    region = map(channel, regionStart, keyLength + valueLength);
+                }
+                byte[] keyBytes = new byte[keyLength];
+                byte[] valueBytes = new byte[valueLength];
+                region.get(keyBytes).get(valueBytes);
+                batch.put(keyCodec.decode(keyBytes), valueCodec.decode(valueBytes));
+                if (batch.size() == RESTORE_BATCH_SIZE) {
+                    orchestrator.populateAll(batch);
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) orchestrator.populateAll(batch);
+            return count;
+        }
+    }
+
+    // Maps MAPPING_SIZE bytes from start (less at the end of the file), failing if fewer than needed are left
+    private static MappedByteBuffer map(FileChannel channel, long start, int needed) throws IOException {
+        long left = channel.size() - start;
+        if (left < needed) throw new IOException("Snapshot is truncated at byte " + start);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(left, Math.max(MAPPING_SIZE, needed)));
+    }
+
+    public void shutdown() {
+        snapshotExecutor.shutdown();
+    }
+};
+
+public class Main {
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("=== Cache System Test Suite ===\n");
+
+        // Initialize components
+        Cache<String, String> cache = new CacheImpl<>();
+        Database<String, String> database = new DatabaseImpl<>();
+        WriteStrategy<String, String> writeStrategy = new WriteThroughStrategy<>();
+        EvictionStrategy<String, String> evictionStrategy = new LRUEvictionStrategy<>();
+
+        int capacity = 5;
+        CachingOrchestrator<String, String> orchestrator = new CachingOrchestrator<>(
+                cache, database, evictionStrategy, writeStrategy, capacity
+        );
+
+        // Test 1: Basic Write and Read
+        System.out.println("Test 1: Basic Write and Read");
+        System.out.println("------------------------------");
+        orchestrator.write("user1", "Alice");
+        orchestrator.write("user2", "Bob");
+        orchestrator.write("user3", "Charlie");
+        Thread.sleep(200);
+
+        System.out.println("Read user1: " + orchestrator.read("user1"));
+        System.out.println("Read user2: " + orchestrator.read("user2"));
+        System.out.println("Read user3: " + orchestrator.read("user3"));
+        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
+        System.out.println("✅ PASS\n");
+
+        // Test 2: Fill to Capacity
+        System.out.println("Test 2: Fill Cache to Capacity");
+        System.out.println("--------------------------------");
+        orchestrator.write("user4", "David");
+        orchestrator.write("user5", "Eve");
+        Thread.sleep(200);
+        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
+        System.out.println("Expected: 5/5");
+        System.out.println(orchestrator.getCurrentSize() == 5 ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 3: LRU Eviction
+        System.out.println("Test 3: LRU Eviction");
+        System.out.println("---------------------");
+        System.out.println("Current keys: user1, user2, user3, user4, user5");
+
+        // Access user2 and user3 to make them recently used
+        orchestrator.read("user2");
+        orchestrator.read("user3");
+        Thread.sleep(100);
+
+        System.out.println("Accessed user2 and user3 (now most recent)");
+        System.out.println("Adding user6... should evict user1 (LRU)");
+
+        orchestrator.write("user6", "Frank");
+        Thread.sleep(200);
+
+        String evicted = orchestrator.read("user1");
+        String exists = orchestrator.read("user6");
+
+        System.out.println("Read user1 (should be null): " + evicted);
+        System.out.println("Read user6 (should be 'Frank'): " + exists);
+        System.out.println("Size: " + orchestrator.getCurrentSize() + "/" + orchestrator.getMaxCapacity());
+        System.out.println((evicted == null && "Frank".equals(exists)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 4: Update Existing Key (Critical!)
+        System.out.println("Test 4: Update Existing Key");
+        System.out.println("----------------------------");
+        int sizeBefore = orchestrator.getCurrentSize();
+        System.out.println("Size before update: " + sizeBefore);
+
+        orchestrator.write("user2", "Bob_Updated");
+        Thread.sleep(200);
+
+        int sizeAfter = orchestrator.getCurrentSize();
+        String updated = orchestrator.read("user2");
+
+        System.out.println("Updated user2 to: " + updated);
+        System.out.println("Size after update: " + sizeAfter);
+        System.out.println("Expected: Size should NOT change (still " + sizeBefore + ")");
+        System.out.println((sizeAfter == sizeBefore && "Bob_Updated".equals(updated)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 5: Multiple Updates Don't Increase Size
+        System.out.println("Test 5: Multiple Updates to Same Key");
+        System.out.println("-------------------------------------");
+        sizeBefore = orchestrator.getCurrentSize();
+
+        orchestrator.write("user3", "Charlie_v2");
+        Thread.sleep(100);
+        orchestrator.write("user3", "Charlie_v3");
+        Thread.sleep(100);
+        orchestrator.write("user3", "Charlie_v4");
+        Thread.sleep(200);
+
+        sizeAfter = orchestrator.getCurrentSize();
+        String finalValue = orchestrator.read("user3");
+
+        System.out.println("Updated user3 3 times");
+        System.out.println("Final value: " + finalValue);
+        System.out.println("Size before: " + sizeBefore + ", after: " + sizeAfter);
+        System.out.println((sizeAfter == sizeBefore && "Charlie_v4".equals(finalValue)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 6: Concurrent Writes
+        System.out.println("Test 6: Concurrent Writes");
+        System.out.println("--------------------------");
+        CountDownLatch latch = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            new Thread(() -> {
+                orchestrator.write("concurrent" + index, "Value" + index);
+                latch.countDown();
+            }).start();
+        }
+
+        latch.await();
+        Thread.sleep(300);
+
+        int finalSize = orchestrator.getCurrentSize();
+        System.out.println("Wrote 20 concurrent keys");
+        System.out.println("Final size: " + finalSize + "/" + orchestrator.getMaxCapacity());
+        System.out.println("Size should be at capacity (5)");
+        System.out.println((finalSize <= capacity) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 7: Read Your Own Writes
+        System.out.println("Test 7: Read Your Own Writes");
+        System.out.println("-----------------------------");
+        String testKey = "consistency-test";
+        orchestrator.write(testKey, "TestValue");
+        Thread.sleep(200);
+
+        String readValue = orchestrator.read(testKey);
+        System.out.println("Wrote: TestValue, Read: " + readValue);
+        System.out.println("TestValue".equals(readValue) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 8: Thread Affinity (Same Key Operations)
+        System.out.println("Test 8: Thread Affinity");
+        System.out.println("------------------------");
+        String affinityKey = "affinity-test";
+
+        orchestrator.write(affinityKey, "v1");
+        Thread.sleep(50);
+        orchestrator.write(affinityKey, "v2");
+        Thread.sleep(50);
+        orchestrator.write(affinityKey, "v3");
+        Thread.sleep(200);
+
+        String affinityValue = orchestrator.read(affinityKey);
+        System.out.println("Wrote v1, v2, v3 sequentially to same key");
+        System.out.println("Final value: " + affinityValue);
+        System.out.println("v3".equals(affinityValue) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 9: Cache Miss Returns Null
+        System.out.println("Test 9: Cache Miss");
+        System.out.println("-------------------");
+        String missValue = orchestrator.read("nonexistent-key");
+        System.out.println("Read nonexistent key: " + missValue);
+        System.out.println("Expected: null");
+        System.out.println((missValue == null) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 10: Stress Test - Verify Size Never Exceeds Capacity
+        System.out.println("Test 10: Stress Test (100 operations)");
+        System.out.println("--------------------------------------");
+        CountDownLatch stressLatch = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            new Thread(() -> {
+                if (index % 2 == 0) {
+                    orchestrator.write("stress" + (index % 30), "V" + index);
+                } else {
+                    orchestrator.read("stress" + (index % 30));
+                }
+                stressLatch.countDown();
+            }).start();
+        }
+
+        stressLatch.await();
+        Thread.sleep(500);
 
         finalSize = orchestrator.getCurrentSize();
         System.out.println("After 100 concurrent operations:");
@@ -505,6 +3663,620 @@ public class Main {
         System.out.println("Size should never exceed capacity");
         System.out.println((finalSize <= capacity) ? "✅ PASS\n" : "❌ FAIL\n");
 
+        // Test 11: Buffered LRU keeps LRU order
+        System.out.println("Test 11: Buffered LRU Eviction Order");
+        System.out.println("-------------------------------------");
+        EvictionStrategy<String, String> bufferedLru = new BufferedLRUEvictionStrategy<>();
+        for (int i = 1; i <= 5; i++) {
+            bufferedLru.accessed("user" + i, "V" + i);
+        }
+        bufferedLru.accessed("user1", "V1");
+        bufferedLru.accessed("user2", "V2");
+        String firstVictim = bufferedLru.evict();
+        String secondVictim = bufferedLru.evict();
+        System.out.println("Accessed user1 and user2 again, evicted: " + firstVictim + ", " + secondVictim);
+        System.out.println("Expected: user3, user4");
+        System.out.println(("user3".equals(firstVictim) && "user4".equals(secondVictim)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 12: Hit Throughput, synchronized LRU vs buffered LRU
+        System.out.println("Test 12: Hit Throughput (synchronized LRU vs buffered LRU)");
+        System.out.println("-----------------------------------------------------------");
+        // Warm up both implementations at every thread count, so the JIT has seen the contended paths (a busy drain) before
+        // compiling them. Otherwise the first rows run half compiled code and hit deoptimizations
+        for (int round = 0; round < 2; round++) {
+            for (int threads : new int[]{1, 4, 16, 64}) {
+                measureHitThroughput(new LRUEvictionStrategy<>(), threads);
+                measureHitThroughput(new BufferedLRUEvictionStrategy<>(), threads);
+            }
+        }
+        // Buffered LRU only counts the hits it recorded, the calls that returned early on a full buffer are shown apart
+        boolean bufferedKeepsUp = true;
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            long lruOps = 0;
+            long[] buffered = {0, 0};
+            for (int round = 0; round < 3; round++) { // Best of 3, alternating so both see the same machine
+                lruOps = Math.max(lruOps, measureHitThroughput(new LRUEvictionStrategy<>(), threads)[1]);
+                long[] bufferedRound = measureHitThroughput(new BufferedLRUEvictionStrategy<>(), threads);
+                if (bufferedRound[1] > buffered[1]) buffered = bufferedRound;
+            }
+            System.out.printf("%d threads -> LRU: %d ops/ms, Buffered LRU: %d recorded ops/ms (%d calls/ms), %.2fx of LRU%n", threads, lruOps, buffered[1], buffered[0], (double) buffered[1] / lruOps);
+            if (threads >= 16) {
+                bufferedKeepsUp &= buffered[1] >= 0.9 * lruOps; // Allows for run-to-run noise only
+            }
+        }
+        System.out.println("Expected: Buffered LRU records at least as many hits as LRU (within 10%) at 16 and 64 threads");
+        System.out.println(bufferedKeepsUp ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 13: Trace Replay, LRU vs W-TinyLFU hit rates
+        System.out.println("Test 13: Trace Replay (LRU vs W-TinyLFU)");
+        System.out.println("-----------------------------------------");
+        int traceCapacity = 500;
+        int[] zipfTrace = zipfianTrace(200_000, 10_000, 0.9, 42);
+        int[] scanTrace = scanMixedTrace(200_000, 10_000, 0.9, 42);
+        double lruZipf = replayTrace(new LRUEvictionStrategy<>(), zipfTrace, traceCapacity);
+        double tinyLfuZipf = replayTrace(new TinyLfuEvictionStrategy<>(traceCapacity), zipfTrace, traceCapacity);
+        double lruScan = replayTrace(new LRUEvictionStrategy<>(), scanTrace, traceCapacity);
+        double tinyLfuScan = replayTrace(new TinyLfuEvictionStrategy<>(traceCapacity), scanTrace, traceCapacity);
+        System.out.printf("Zipfian      -> LRU: %.2f%%, W-TinyLFU: %.2f%%%n", lruZipf * 100, tinyLfuZipf * 100);
+        System.out.printf("Scan + Zipf  -> LRU: %.2f%%, W-TinyLFU: %.2f%%%n", lruScan * 100, tinyLfuScan * 100);
+        System.out.println("Expected: W-TinyLFU hit rate >= LRU on both traces");
+        System.out.println((tinyLfuZipf >= lruZipf && tinyLfuScan >= lruScan) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 14: Hit Latency, slot executor read vs direct read
+        System.out.println("Test 14: Hit Latency (slot executor vs direct read)");
+        System.out.println("---------------------------------------------------");
+        orchestrator.write("latency-key", "L");
+        Thread.sleep(200);
+        long[] slotLatencies = new long[20_000];
+        long[] directLatencies = new long[20_000];
+        for (int round = 0; round < 2; round++) { // First round warms up the JIT
+            for (int i = 0; i < slotLatencies.length; i++) {
+                long start = System.nanoTime();
+                orchestrator.readOnSlot("latency-key");
+                slotLatencies[i] = System.nanoTime() - start;
+            }
+            for (int i = 0; i < directLatencies.length; i++) {
+                long start = System.nanoTime();
+                orchestrator.read("latency-key");
+                directLatencies[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(slotLatencies);
+        Arrays.sort(directLatencies);
+        System.out.println("Slot executor -> p50: " + percentile(slotLatencies, 0.50) + "ns, p99: " + percentile(slotLatencies, 0.99) + "ns");
+        System.out.println("Direct read   -> p50: " + percentile(directLatencies, 0.50) + "ns, p99: " + percentile(directLatencies, 0.99) + "ns");
+        System.out.println((percentile(directLatencies, 0.50) < percentile(slotLatencies, 0.50)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 15: Read Your Own Writes Without Waiting
+        System.out.println("Test 15: Read Your Own Writes Without Waiting");
+        System.out.println("----------------------------------------------");
+        orchestrator.write("ryow-key", "first");
+        String immediateRead = orchestrator.read("ryow-key");
+        orchestrator.write("ryow-key", "second");
+        String secondRead = orchestrator.read("ryow-key");
+        System.out.println("Read right after writes: " + immediateRead + ", " + secondRead);
+        System.out.println(("first".equals(immediateRead) && "second".equals(secondRead)) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 16: Write-Back Acknowledges Before the Database Write
+        System.out.println("Test 16: Write-Back Acknowledges Before the Database Write");
+        System.out.println("-----------------------------------------------------------");
+        RecordingDatabase<String, String> writeBackDatabase = new RecordingDatabase<>();
+        WriteBackStrategy<String, String> writeBack = new WriteBackStrategy<>(writeBackDatabase, 100, 300);
+        CachingOrchestrator<String, String> writeBackOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), writeBackDatabase, new LRUEvictionStrategy<>(), writeBack, 100
+        );
+        long writeBackStart = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            writeBackOrchestrator.write("wb" + i, "V" + i);
+        }
+        boolean allVisible = true;
+        for (int i = 0; i < 20; i++) {
+            allVisible &= ("V" + i).equals(writeBackOrchestrator.read("wb" + i));
+        }
+        long ackMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeBackStart);
+        boolean persistedBeforeFlush = writeBackDatabase.getValue("wb0") != null;
+        Thread.sleep(600);
+        boolean allPersisted = true;
+        for (int i = 0; i < 20; i++) {
+            allPersisted &= ("V" + i).equals(writeBackDatabase.getValue("wb" + i));
+        }
+        System.out.println("20 writes visible in cache after " + ackMs + "ms");
+        System.out.println("Persisted before timed flush: " + persistedBeforeFlush + ", after: " + allPersisted + ", putAll calls: " + writeBackDatabase.getPutAllCalls());
+        System.out.println((allVisible && ackMs < 500 && !persistedBeforeFlush && allPersisted) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 17: Write-Back Coalesces Repeated Writes
+        System.out.println("Test 17: Write-Back Coalescing");
+        System.out.println("-------------------------------");
+        int persistedBefore = writeBackDatabase.getPersistedCount("hot");
+        for (int i = 1; i <= 100; i++) {
+            writeBackOrchestrator.write("hot", "hot-v" + i);
+        }
+        writeBackOrchestrator.read("hot");
+        Thread.sleep(600);
+        int hotPersists = writeBackDatabase.getPersistedCount("hot") - persistedBefore;
+        System.out.println("100 writes to one key, database writes for it: " + hotPersists + ", final value: " + writeBackDatabase.getValue("hot"));
+        System.out.println((hotPersists <= 2 && "hot-v100".equals(writeBackDatabase.getValue("hot"))) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 18: Write-Back Never Persists an Older Value After a Newer One
+        System.out.println("Test 18: Write-Back Ordering Under Size-Triggered Flushes");
+        System.out.println("----------------------------------------------------------");
+        RecordingDatabase<String, String> orderingDatabase = new RecordingDatabase<>();
+        CachingOrchestrator<String, String> orderingOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), orderingDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(orderingDatabase, 5, 50), 1000
+        );
+        for (int i = 0; i < 200; i++) {
+            orderingOrchestrator.write("ordered", "v" + i);
+            orderingOrchestrator.write("filler" + i, "f" + i);
+            if (i % 40 == 0) Thread.sleep(60);
+        }
+        orderingOrchestrator.shutdown();
+        List<String> orderedHistory = orderingDatabase.getPersistedValues("ordered");
+        boolean monotonic = true;
+        for (int i = 1; i < orderedHistory.size(); i++) {
+            monotonic &= Integer.parseInt(orderedHistory.get(i).substring(1)) > Integer.parseInt(orderedHistory.get(i - 1).substring(1));
+        }
+        System.out.println("Persisted versions of 'ordered': " + orderedHistory.size() + ", last: " + orderingDatabase.getValue("ordered"));
+        System.out.println((monotonic && "v199".equals(orderingDatabase.getValue("ordered")) && "f199".equals(orderingDatabase.getValue("filler199"))) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 19: Dirty Entries Are Flushed Before Eviction
+        System.out.println("Test 19: Write-Back Flushes Dirty Entries on Eviction");
+        System.out.println("------------------------------------------------------");
+        RecordingDatabase<String, String> evictionDatabase = new RecordingDatabase<>();
+        WriteBackStrategy<String, String> slowFlushWriteBack = new WriteBackStrategy<>(evictionDatabase, 100, 60_000);
+        CachingOrchestrator<String, String> evictionOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), evictionDatabase, new LRUEvictionStrategy<>(), slowFlushWriteBack, 2
+        );
+        evictionOrchestrator.write("a", "A");
+        evictionOrchestrator.write("b", "B");
+        evictionOrchestrator.read("a");
+        evictionOrchestrator.read("b");
+        evictionOrchestrator.write("c", "C");
+        evictionOrchestrator.read("c");
+        Thread.sleep(200);
+        System.out.println("Evicted 'a' persisted: " + evictionDatabase.getValue("a") + ", still dirty: " + slowFlushWriteBack.getDirtyCount());
+        boolean evictionFlushed = "A".equals(evictionDatabase.getValue("a")) && evictionOrchestrator.read("a") == null;
+        evictionOrchestrator.shutdown();
+        System.out.println("After shutdown b: " + evictionDatabase.getValue("b") + ", c: " + evictionDatabase.getValue("c"));
+        System.out.println((evictionFlushed && "B".equals(evictionDatabase.getValue("b")) && "C".equals(evictionDatabase.getValue("c"))) ? "✅ PASS\n" : "❌ FAIL\n");
+        writeBackOrchestrator.shutdown();
+
+        // Test 20: Read-Through Loading With Request Coalescing
+        System.out.println("Test 20: Read-Through Loading With Request Coalescing");
+        System.out.println("------------------------------------------------------");
+        Database<String, String> readThroughDatabase = new DatabaseImpl<>();
+        readThroughDatabase.put("herd-key", "from-db");
+        AtomicInteger databaseLoads = new AtomicInteger(0);
+        CacheLoader<String, String> countingLoader = key -> {
+            databaseLoads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return readThroughDatabase.getValue(key);
+        };
+        CachingOrchestrator<String, String> readThroughOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), readThroughDatabase, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 10, countingLoader
+        );
+        int herdSize = 1000;
+        CountDownLatch herdReady = new CountDownLatch(herdSize);
+        CountDownLatch herdStart = new CountDownLatch(1);
+        CountDownLatch herdDone = new CountDownLatch(herdSize);
+        AtomicInteger correctReads = new AtomicInteger(0);
+        for (int i = 0; i < herdSize; i++) {
+            new Thread(() -> {
+                herdReady.countDown();
+                try {
+                    herdStart.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if ("from-db".equals(readThroughOrchestrator.read("herd-key"))) {
+                    correctReads.incrementAndGet();
+                }
+                herdDone.countDown();
+            }).start();
+        }
+        herdReady.await();
+        herdStart.countDown();
+        herdDone.await();
+        Thread.sleep(100);
+        String cachedAfterLoad = readThroughOrchestrator.read("herd-key");
+        System.out.println(herdSize + " concurrent misses -> database loads: " + databaseLoads.get() + ", correct reads: " + correctReads.get());
+        System.out.println("Cached after load: " + cachedAfterLoad + ", size: " + readThroughOrchestrator.getCurrentSize() + ", loads after re-read: " + databaseLoads.get());
+        System.out.println((databaseLoads.get() == 1 && correctReads.get() == herdSize && "from-db".equals(cachedAfterLoad) && readThroughOrchestrator.getCurrentSize() == 1) ? "✅ PASS\n" : "❌ FAIL\n");
+        readThroughOrchestrator.shutdown();
+
+        // Test 21: Per-Entry TTL
+        System.out.println("Test 21: Per-Entry TTL");
+        System.out.println("-----------------------");
+        CachingOrchestrator<String, String> ttlOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 5
+        );
+        ttlOrchestrator.write("short-lived", "S", 150, TimeUnit.MILLISECONDS);
+        ttlOrchestrator.write("long-lived", "L", 10, TimeUnit.SECONDS);
+        ttlOrchestrator.write("no-ttl", "N");
+        String beforeExpiry = ttlOrchestrator.read("short-lived");
+        int sizeBeforeExpiry = ttlOrchestrator.getCurrentSize();
+        Thread.sleep(400);
+        String afterExpiry = ttlOrchestrator.read("short-lived");
+        System.out.println("short-lived before: " + beforeExpiry + ", after 400ms: " + afterExpiry);
+        System.out.println("long-lived: " + ttlOrchestrator.read("long-lived") + ", no-ttl: " + ttlOrchestrator.read("no-ttl"));
+        System.out.println("Size before: " + sizeBeforeExpiry + ", after: " + ttlOrchestrator.getCurrentSize());
+        // The expired slot is reusable: filling back to capacity must not evict anything
+        ttlOrchestrator.write("k1", "1");
+        ttlOrchestrator.write("k2", "2");
+        ttlOrchestrator.write("k3", "3");
+        boolean nothingEvicted = "L".equals(ttlOrchestrator.read("long-lived")) && "N".equals(ttlOrchestrator.read("no-ttl"));
+        System.out.println(("S".equals(beforeExpiry) && afterExpiry == null && sizeBeforeExpiry == 3 && nothingEvicted && ttlOrchestrator.getCurrentSize() == 5) ? "✅ PASS\n" : "❌ FAIL\n");
+        ttlOrchestrator.shutdown();
+
+        // Test 22: Expire After Access
+        System.out.println("Test 22: Expire After Access");
+        System.out.println("-----------------------------");
+        CachingOrchestrator<String, String> accessOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 5, null, 200
+        );
+        accessOrchestrator.write("busy", "B");
+        accessOrchestrator.write("idle", "I");
+        boolean busyAlive = true;
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(100);
+            busyAlive &= "B".equals(accessOrchestrator.read("busy"));
+        }
+        String idleValue = accessOrchestrator.read("idle");
+        System.out.println("busy read every 100ms for 600ms stayed alive: " + busyAlive + ", idle after 600ms: " + idleValue);
+        System.out.println("Size: " + accessOrchestrator.getCurrentSize());
+        System.out.println((busyAlive && idleValue == null && accessOrchestrator.getCurrentSize() == 1) ? "✅ PASS\n" : "❌ FAIL\n");
+        accessOrchestrator.shutdown();
+
+        // Test 23: Timer Wheel Expires a Million Entries
+        System.out.println("Test 23: Timer Wheel Scale (1M entries)");
+        System.out.println("----------------------------------------");
+        int timerEntries = 1_000_000;
+        TimerWheel<Integer> timerWheel = new TimerWheel<>(0);
+        Random deadlineRandom = new Random(7);
+        long scheduleStart = System.nanoTime();
+        for (int i = 0; i < timerEntries; i++) {
+            long deadline = TimeUnit.MILLISECONDS.toNanos(1 + deadlineRandom.nextInt(120_000));
+            timerWheel.schedule(i, deadline, deadline);
+        }
+        long scheduleNanos = System.nanoTime() - scheduleStart;
+        AtomicInteger expiredCount = new AtomicInteger(0);
+        long advanceStart = System.nanoTime();
+        // Advance in 10ms steps across the full 2 minute range, like the expiry ticker would
+        for (long time = 0; time <= TimeUnit.SECONDS.toNanos(121); time += TimeUnit.MILLISECONDS.toNanos(10)) {
+            timerWheel.advance(time, key -> {
+                expiredCount.incrementAndGet();
+                timerWheel.removeIfExpired(key, Long.MAX_VALUE);
+            });
+        }
+        long advanceNanos = System.nanoTime() - advanceStart;
+        System.out.println("Schedule: " + scheduleNanos / timerEntries + "ns/entry, expire: " + advanceNanos / timerEntries + "ns/entry");
+        System.out.println("Expired " + expiredCount.get() + " of " + timerEntries + ", still scheduled: " + timerWheel.getScheduledCount());
+        System.out.println((expiredCount.get() == timerEntries && timerWheel.getScheduledCount() == 0) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 24: Weight-Based Capacity
+        System.out.println("Test 24: Weight-Based Capacity");
+        System.out.println("-------------------------------");
+        Weigher<String, String> lengthWeigher = (key, value) -> value.length();
+        CachingOrchestrator<String, String> weightedOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), lengthWeigher, 100
+        );
+        for (int i = 0; i < 10; i++) {
+            weightedOrchestrator.write("small" + i, "0123456789"); // 10 units each, fills the budget
+        }
+        weightedOrchestrator.read("small0");
+        long fullWeight = weightedOrchestrator.getCurrentWeight();
+        weightedOrchestrator.write("big", "x".repeat(45)); // Needs 5 small entries evicted
+        String bigValue = weightedOrchestrator.read("big");
+        long weightAfterBig = weightedOrchestrator.getCurrentWeight();
+        int sizeAfterBig = weightedOrchestrator.getCurrentSize();
+        weightedOrchestrator.write("big", "x".repeat(20)); // Shrinking update, frees 25 units without evicting
+        weightedOrchestrator.read("big");
+        long weightAfterShrink = weightedOrchestrator.getCurrentWeight();
+        System.out.println("Full: " + fullWeight + "/" + weightedOrchestrator.getMaxWeight() + ", after 45-unit insert: " + weightAfterBig + " (" + sizeAfterBig + " entries), after shrink to 20: " + weightAfterShrink);
+        boolean oversizedRejected = false;
+        try {
+            weightedOrchestrator.write("huge", "x".repeat(101));
+        } catch (IllegalArgumentException ex) {
+            oversizedRejected = true;
+        }
+        System.out.println("Entry heavier than the budget rejected: " + oversizedRejected);
+        System.out.println((fullWeight == 100 && bigValue != null && weightAfterBig == 95 && sizeAfterBig == 6 && weightAfterShrink == 70 && oversizedRejected) ? "✅ PASS\n" : "❌ FAIL\n");
+        weightedOrchestrator.shutdown();
+
+        // Test 25: Capacity Bound Under Concurrent Writers
+        System.out.println("Test 25: Capacity Bound Under Concurrent Writers");
+        System.out.println("-------------------------------------------------");
+        WriteStrategy<Integer, Integer> cacheOnlyWrites = (targetCache, targetDatabase, key, value) -> targetCache.put(key, value);
+        CachingOrchestrator<Integer, Integer> boundedOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), cacheOnlyWrites, 200
+        );
+        long bound = boundedOrchestrator.getMaxWeight() + boundedOrchestrator.getMaxOvershoot();
+        AtomicBoolean writersRunning = new AtomicBoolean(true);
+        AtomicLong maxObservedWeight = new AtomicLong(0);
+        Thread weightSampler = new Thread(() -> {
+            while (writersRunning.get()) {
+                maxObservedWeight.accumulateAndGet(boundedOrchestrator.getCurrentWeight(), Math::max);
+            }
+        });
+        weightSampler.start();
+        CountDownLatch boundedWriters = new CountDownLatch(16);
+        for (int t = 0; t < 16; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    boundedOrchestrator.write(ThreadLocalRandom.current().nextInt(5_000), i);
+                }
+                boundedWriters.countDown();
+            }).start();
+        }
+        boundedWriters.await();
+        writersRunning.set(false);
+        weightSampler.join();
+        Thread.sleep(300);
+        System.out.println("Max observed weight: " + maxObservedWeight.get() + ", bound (capacity + overshoot): " + bound);
+        System.out.println("Settled weight: " + boundedOrchestrator.getCurrentWeight() + ", size: " + boundedOrchestrator.getCurrentSize() + "/" + boundedOrchestrator.getMaxCapacity());
+        System.out.println((maxObservedWeight.get() <= bound && boundedOrchestrator.getCurrentSize() <= boundedOrchestrator.getMaxCapacity()) ? "✅ PASS\n" : "❌ FAIL\n");
+        boundedOrchestrator.shutdown();
+
+        // Test 26: Write Admission Throughput, CAS admission vs the previous sizeLock admission
+        System.out.println("Test 26: Write Admission Throughput (CAS vs sizeLock)");
+        System.out.println("-------------------------------------------------------");
+        int writesPerThread = 50_000;
+        for (int round = 0; round < 2; round++) { // Compiles both write paths before anything is measured
+            for (int threads : new int[]{1, 4, 16}) {
+                timeOrchestratorWrites(cacheOnlyWrites, threads, writesPerThread);
+                timeSizeLockWrites(threads, writesPerThread);
+            }
+        }
+        boolean casKeepsUp = true;
+        for (int threads : new int[]{1, 4, 16}) {
+            double casWritesPerMs = 0, sizeLockWritesPerMs = 0;
+            for (int round = 0; round < 5; round++) { // Best of 5, alternating which goes first so both see the same machine
+                if (round % 2 == 0) {
+                    casWritesPerMs = Math.max(casWritesPerMs, timeOrchestratorWrites(cacheOnlyWrites, threads, writesPerThread));
+                }
+                sizeLockWritesPerMs = Math.max(sizeLockWritesPerMs, timeSizeLockWrites(threads, writesPerThread));
+                if (round % 2 == 1) {
+                    casWritesPerMs = Math.max(casWritesPerMs, timeOrchestratorWrites(cacheOnlyWrites, threads, writesPerThread));
+                }
+            }
+            System.out.printf("%2d writer threads -> CAS admission: %,.0f writes/ms, sizeLock admission: %,.0f writes/ms, %.2fx%n", threads, casWritesPerMs, sizeLockWritesPerMs, casWritesPerMs / sizeLockWritesPerMs);
+            if (threads >= 4) {
+                casKeepsUp &= casWritesPerMs >= 0.75 * sizeLockWritesPerMs; // One core leaves CAS no contention to win on, the slack only covers run-to-run noise
+            }
+        }
+        System.out.println("Expected: CAS admission at least as fast as sizeLock admission (within 25%) at 4 and 16 threads");
+        System.out.println(casKeepsUp ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 27: Off-Heap Cache Behind the Orchestrator
+        System.out.println("Test 27: Off-Heap Cache");
+        System.out.println("------------------------");
+        OffHeapCache<String, String> offHeapCache = new OffHeapCache<>(new StringValueCodec(), 64L * SlabArena.SLAB_SIZE);
+        CachingOrchestrator<String, String> offHeapOrchestrator = new CachingOrchestrator<>(
+                offHeapCache, new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 3
+        );
+        offHeapOrchestrator.write("oh1", "first");
+        offHeapOrchestrator.write("oh2", "second");
+        offHeapOrchestrator.write("oh3", "third");
+        offHeapOrchestrator.write("oh2", "second-updated-with-a-much-longer-value-than-before-" + "x".repeat(100));
+        String offHeapUpdated = offHeapOrchestrator.read("oh2");
+        offHeapOrchestrator.read("oh3");
+        offHeapOrchestrator.write("oh4", "fourth"); // Evicts oh1
+        Thread.sleep(100);
+        String offHeapEvicted = offHeapOrchestrator.read("oh1");
+        System.out.println("Updated oh2 length: " + (offHeapUpdated == null ? 0 : offHeapUpdated.length()) + ", evicted oh1: " + offHeapEvicted + ", oh4: " + offHeapOrchestrator.read("oh4"));
+        System.out.println("Arena: " + offHeapCache.getStats());
+        System.out.println((offHeapUpdated != null && offHeapUpdated.startsWith("second-updated") && offHeapEvicted == null && offHeapCache.getStats().getEntries() == 3) ? "✅ PASS\n" : "❌ FAIL\n");
+        offHeapOrchestrator.shutdown();
+
+        // Test 28: Off-Heap Chunks Are Reused
+        System.out.println("Test 28: Off-Heap Chunk Reuse");
+        System.out.println("------------------------------");
+        OffHeapCache<Integer, String> reuseCache = new OffHeapCache<>(new StringValueCodec(), 64L * SlabArena.SLAB_SIZE);
+        for (int i = 0; i < 50_000; i++) {
+            reuseCache.put(i, "value-" + i);
+        }
+        ArenaStats afterFill = reuseCache.getStats();
+        for (int i = 0; i < 50_000; i++) {
+            reuseCache.deleteByKey(i);
+        }
+        ArenaStats afterDelete = reuseCache.getStats();
+        for (int i = 0; i < 50_000; i++) {
+            reuseCache.put(i, "again-" + i);
+        }
+        ArenaStats afterRefill = reuseCache.getStats();
+        System.out.println("After fill:   " + afterFill);
+        System.out.println("After delete: " + afterDelete);
+        System.out.println("After refill: " + afterRefill);
+        System.out.println((afterDelete.getAllocatedBytes() == 0 && afterRefill.getSlabs() == afterFill.getSlabs() && "again-49999".equals(reuseCache.getValue(49_999))) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 29: Cache Statistics
+        System.out.println("Test 29: Cache Statistics");
+        System.out.println("--------------------------");
+        Database<String, String> statsDatabase = new DatabaseImpl<>();
+        statsDatabase.put("db-only", "D");
+        CachingOrchestrator<String, String> statsOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), statsDatabase, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 3, new DatabaseCacheLoader<>(statsDatabase)
+        );
+        List<CacheStats> reports = new CopyOnWriteArrayList<>();
+        statsOrchestrator.startStatsReporting(50, TimeUnit.MILLISECONDS, reports::add);
+        for (int i = 0; i < 5; i++) {
+            statsOrchestrator.write("s" + i, "V" + i); // 2 evictions
+        }
+        Thread.sleep(200);
+        for (int i = 0; i < 1_000; i++) {
+            statsOrchestrator.read("s4"); // hits
+        }
+        statsOrchestrator.read("s0"); // miss, evicted, the loader finds it in the database
+        statsOrchestrator.read("db-only"); // miss, loaded
+        Thread.sleep(100);
+        CacheStats stats = statsOrchestrator.getStats();
+        System.out.println(stats);
+        System.out.println("Periodic reports received: " + reports.size());
+        System.out.println((stats.getHitCount() == 1_000 && stats.getMissCount() == 2 && stats.getEvictionCount() >= 2 && stats.getLoadSuccessCount() == 2
+                && stats.getReadP50() > 0 && !reports.isEmpty()) ? "✅ PASS\n" : "❌ FAIL\n");
+        statsOrchestrator.shutdown();
+
+        // Test 30 lives in its own method so its loops are compiled on their own, not as part of main()
+        runStatsOverheadTest();
+
+        // Test 31: Bulk Read and Write
+        System.out.println("Test 31: Bulk Read and Write");
+        System.out.println("-----------------------------");
+        RecordingDatabase<String, String> bulkDatabase = new RecordingDatabase<>();
+        CachingOrchestrator<String, String> bulkOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), bulkDatabase, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 1_000, new DatabaseCacheLoader<>(bulkDatabase)
+        );
+        Map<String, String> bulkEntries = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            bulkEntries.put("bulk" + i, "B" + i);
+        }
+        long bulkWriteStart = System.nanoTime();
+        bulkOrchestrator.writeAll(bulkEntries);
+        Map<String, String> bulkRead = bulkOrchestrator.readAll(bulkEntries.keySet()); // Ordered after the writes
+        long bulkWriteMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bulkWriteStart);
+        bulkDatabase.putAll(Map.of("cold1", "C1", "cold2", "C2"));
+        Map<String, String> withMisses = bulkOrchestrator.readAll(List.of("bulk0", "cold1", "cold2", "nowhere"));
+        System.out.println("writeAll + readAll of 100 keys: " + bulkWriteMs + "ms, database putAll calls: " + bulkDatabase.getPutAllCalls() + ", read back: " + bulkRead.size());
+        System.out.println("readAll with misses: " + new TreeMap<>(withMisses) + ", database getAll calls: " + bulkDatabase.getGetAllCalls());
+        Thread.sleep(100);
+        System.out.println("cold1 cached after bulk load: " + bulkOrchestrator.read("cold1"));
+        System.out.println((bulkRead.equals(bulkEntries) && bulkDatabase.getPutAllCalls() <= 11 && withMisses.size() == 3 && !withMisses.containsKey("nowhere")
+                && bulkDatabase.getGetAllCalls() == 1 && "C1".equals(bulkOrchestrator.read("cold1"))) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 32: Bulk vs Per-Key Throughput
+        System.out.println("Test 32: Bulk vs Per-Key Throughput");
+        System.out.println("------------------------------------");
+        List<String> bulkKeys = new ArrayList<>(bulkEntries.keySet());
+        for (int round = 0; round < 2; round++) { // First round warms up the JIT
+            long perKeyStart = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                for (String key : bulkKeys) {
+                    bulkOrchestrator.read(key);
+                }
+            }
+            long perKeyNanos = System.nanoTime() - perKeyStart;
+            long bulkStart = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                bulkOrchestrator.readAll(bulkKeys);
+            }
+            long bulkNanos = System.nanoTime() - bulkStart;
+            if (round == 1) {
+                System.out.println("Reads  -> per-key: " + (200L * bulkKeys.size() * 1_000_000 / perKeyNanos) + " keys/ms, bulk: " + (200L * bulkKeys.size() * 1_000_000 / bulkNanos) + " keys/ms");
+            }
+        }
+        Map<String, String> rewrite = new LinkedHashMap<>();
+        bulkKeys.forEach(key -> rewrite.put(key, "W"));
+        long perKeyWriteStart = System.nanoTime();
+        for (String key : bulkKeys) {
+            bulkOrchestrator.write(key, "P");
+        }
+        bulkOrchestrator.readAll(bulkKeys);
+        long perKeyWriteMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - perKeyWriteStart);
+        long bulkWriteStart2 = System.nanoTime();
+        bulkOrchestrator.writeAll(rewrite);
+        bulkOrchestrator.readAll(bulkKeys);
+        long bulkWriteMs2 = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bulkWriteStart2);
+        System.out.println("Writes -> 100 keys write-through, per-key: " + perKeyWriteMs + "ms, bulk: " + bulkWriteMs2 + "ms");
+        System.out.println((bulkWriteMs2 < perKeyWriteMs) ? "✅ PASS\n" : "❌ FAIL\n");
+        bulkOrchestrator.shutdown();
+
+        // Test 33: Refresh-After-Write Keeps Reads Off the Loader
+        System.out.println("Test 33: Refresh-After-Write Keeps Reads Off the Loader");
+        System.out.println("--------------------------------------------------------");
+        AtomicInteger refreshLoads = new AtomicInteger(0);
+        AtomicInteger loadsRunning = new AtomicInteger(0);
+        AtomicInteger maxLoadsRunning = new AtomicInteger(0);
+        AtomicBoolean failRefreshes = new AtomicBoolean(false);
+        CacheLoader<String, String> slowLoader = key -> {
+            maxLoadsRunning.accumulateAndGet(loadsRunning.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50); // Every load costs a database round trip
+                if (failRefreshes.get()) throw new IllegalStateException("database unavailable");
+                return "R" + refreshLoads.incrementAndGet();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            finally {
+                loadsRunning.decrementAndGet();
+            }
+        };
+        CachingOrchestrator<String, String> refreshOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new RecordingDatabase<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100, slowLoader
+        );
+        refreshOrchestrator.enableRefreshAfterWrite(100, TimeUnit.MILLISECONDS, 2);
+        refreshOrchestrator.write("hot", "R0");
+        refreshOrchestrator.read("hot"); // Waits for the write-through, so only reads of a cached entry are timed
+        Set<String> servedValues = ConcurrentHashMap.newKeySet();
+        AtomicInteger nullReads = new AtomicInteger(0);
+        List<Long> refreshReadLatencies = Collections.synchronizedList(new ArrayList<>());
+        long refreshDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600); // Crosses ~5 refresh boundaries
+        Thread[] refreshReaders = new Thread[2];
+        for (int t = 0; t < refreshReaders.length; t++) {
+            refreshReaders[t] = new Thread(() -> {
+                List<Long> local = new ArrayList<>();
+                while (System.nanoTime() < refreshDeadline) {
+                    long start = System.nanoTime();
+                    String value = refreshOrchestrator.read("hot");
+                    local.add(System.nanoTime() - start);
+                    if (value == null) nullReads.incrementAndGet();
+                    else servedValues.add(value);
+                    LockSupport.parkNanos(100_000);
+                }
+                refreshReadLatencies.addAll(local);
+            });
+            refreshReaders[t].start();
+        }
+        for (Thread reader : refreshReaders) {
+            reader.join();
+        }
+        long[] sortedRefreshLatencies = refreshReadLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        long refreshMaxMicros = TimeUnit.NANOSECONDS.toMicros(sortedRefreshLatencies[sortedRefreshLatencies.length - 1]);
+        System.out.println("Reads: " + sortedRefreshLatencies.length + ", values served: " + new TreeSet<>(servedValues) + ", refresh loads: " + refreshLoads.get()
+                + ", max concurrent loads: " + maxLoadsRunning.get());
+        System.out.println("Read latency p50/p99/p999/max: " + percentile(sortedRefreshLatencies, 0.50) / 1000 + "/" + percentile(sortedRefreshLatencies, 0.99) / 1000
+                + "/" + percentile(sortedRefreshLatencies, 0.999) / 1000 + "/" + refreshMaxMicros + "us (loader takes 50000us)");
+        System.out.println((nullReads.get() == 0 && servedValues.size() >= 3 && refreshLoads.get() <= 7 && maxLoadsRunning.get() == 1
+                && percentile(sortedRefreshLatencies, 0.99) < TimeUnit.MILLISECONDS.toNanos(5) && refreshMaxMicros < 50_000) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Test 34: Failed Refresh Keeps the Old Value
+        System.out.println("Test 34: Failed Refresh Keeps the Old Value");
+        System.out.println("--------------------------------------------");
+        failRefreshes.set(true);
+        Thread.sleep(200);
+        String beforeFailure = refreshOrchestrator.read("hot"); // Stale, queues a refresh that fails
+        Thread.sleep(100);
+        String afterFailure = refreshOrchestrator.read("hot");
+        long failedLoads = refreshOrchestrator.getStats().getLoadFailureCount();
+        failRefreshes.set(false);
+        Thread.sleep(150);
+        refreshOrchestrator.read("hot"); // Backoff has passed, this one refreshes again
+        Thread.sleep(100);
+        String recovered = refreshOrchestrator.read("hot");
+        System.out.println("Before failure: " + beforeFailure + ", after failed refresh: " + afterFailure + " (failed loads: " + failedLoads + "), after recovery: " + recovered);
+        System.out.println((beforeFailure != null && beforeFailure.equals(afterFailure) && failedLoads >= 1 && recovered != null && !recovered.equals(afterFailure)) ? "✅ PASS\n" : "❌ FAIL\n");
+        refreshOrchestrator.shutdown();
+
+        // Tests 35-36 live in their own method, main() is already close to the size above which HotSpot stops compiling it
+        runDistributedCacheTests();
+        runSnapshotTests();
+        runExecutionModeTests();
+        runLongLongCacheTests();
+        runRemovalListenerTests();
+        runWriteFailureTests();
+        runLoadRaceTests();
+        runExpiryTickerTests();
+        runBulkLoadRaceTests();
+        runRefreshBackoffTests();
+        runReplicaOrderingTests();
+        runListenerErrorTests();
+        runSerialExecutorErrorTests();
+        runWriteBackBindingTests();
+
         // Summary
         System.out.println("=== Test Summary ===");
         System.out.println("All tests completed!");
@@ -516,4 +4288,1101 @@ public class Main {
         orchestrator.shutdown();
         System.out.println("Shutdown complete. ✅");
     }
-}
\ No newline at end of file
+
+    // Test 35: key movement of the consistent-hash ring and rebalancing with replicas. Test 36: throughput from 1 to 8 nodes
+    private static void runStatsOverheadTest() {
+        System.out.println("Test 30: Stats Recording Overhead");
+        System.out.println("----------------------------------");
+        // Baseline and recording loops run back to back in every round, and the median over the rounds after the warm-up ones
+        // keeps a round that was preempted or hit a GC pause from deciding the result
+        StatsCounter overheadCounter = new StatsCounter();
+        int overheadWarmupRounds = 5;
+        int overheadRounds = 15;
+        int overheadIterations = 5_000_000;
+        long overheadSink = 0;
+        double[] roundOverheads = new double[overheadRounds];
+        for (int round = -overheadWarmupRounds; round < overheadRounds; round++) {
+            long baselineStart = System.nanoTime();
+            for (int i = 0; i < overheadIterations; i++) {
+                overheadSink += i ^ round;
+            }
+            long baselineNanos = System.nanoTime() - baselineStart;
+
+            long recordingStart = System.nanoTime();
+            for (int i = 0; i < overheadIterations; i++) {
+                long timer = overheadCounter.startTimer();
+                overheadSink += i ^ round;
+                overheadCounter.recordHit();
+                overheadCounter.recordRead(timer);
+            }
+            long recordingNanos = System.nanoTime() - recordingStart;
+            if (round >= 0) roundOverheads[round] = (double) (recordingNanos - baselineNanos) / overheadIterations;
+        }
+        Arrays.sort(roundOverheads);
+        double overheadPerOp = roundOverheads[overheadRounds / 2];
+        CacheStats overheadStats = overheadCounter.snapshot(new int[0], 0, 0, null);
+        System.out.printf("Recording overhead: %.1fns per operation (median of %d rounds, min %.1fns, max %.1fns, budget 20ns, sink %d)%n",
+                overheadPerOp, overheadRounds, roundOverheads[0], roundOverheads[overheadRounds - 1], overheadSink & 1);
+        System.out.println((overheadPerOp < 20 && overheadStats.getHitCount() == (long) (overheadWarmupRounds + overheadRounds) * overheadIterations
+                && overheadStats.getReadP50() > 0) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runDistributedCacheTests() throws InterruptedException {
+        // Test 35: Consistent Hashing Key Movement
+        System.out.println("Test 35: Consistent Hashing Key Movement");
+        System.out.println("-----------------------------------------");
+        ConsistentHashRing movementRing = new ConsistentHashRing(160);
+        int ringKeys = 100_000;
+        String[] primaries = new String[ringKeys];
+        boolean movementBounded = true;
+        for (int nodes = 1; nodes <= 8; nodes++) {
+            movementRing.addNode("node" + nodes);
+            int ringMoved = 0, moduloMoved = 0;
+            for (int key = 0; key < ringKeys; key++) {
+                String primary = movementRing.getNodes(key, 1).get(0);
+                if (primaries[key] != null && !primary.equals(primaries[key])) ringMoved++;
+                if (nodes > 1 && key % nodes != key % (nodes - 1)) moduloMoved++;
+                primaries[key] = primary;
+            }
+            if (nodes > 1) {
+                double ringFraction = (double) ringMoved / ringKeys;
+                System.out.printf("%d -> %d nodes: ring moved %.1f%% of keys (ideal %.1f%%), hash %% N would move %.1f%%%n",
+                        nodes - 1, nodes, ringFraction * 100, 100.0 / nodes, 100.0 * moduloMoved / ringKeys);
+                movementBounded &= ringFraction > 0.5 / nodes && ringFraction < 1.5 / nodes;
+            }
+        }
+
+        Database<Integer, String> sharedDatabase = new DatabaseImpl<>();
+        AtomicInteger clusterLoads = new AtomicInteger(0);
+        DistributedCache<Integer, String> cluster = new DistributedCache<>(160, 2);
+        List<CachingOrchestrator<Integer, String>> clusterNodes = new ArrayList<>();
+        for (int node = 1; node <= 4; node++) {
+            clusterNodes.add(newCacheNode(sharedDatabase, clusterLoads, 2_000));
+            cluster.addNode("node" + node, clusterNodes.get(node - 1));
+        }
+        for (int key = 0; key < 1_000; key++) {
+            cluster.write(key, "V" + key);
+        }
+        Thread.sleep(200); // Let the write-back flushers persist everything
+        int movedOnAdd = cluster.addNode("node5", newCacheNode(sharedDatabase, clusterLoads, 2_000));
+        int movedOnRemove = cluster.removeNode("node2");
+        clusterNodes.get(1).shutdown();
+        boolean allServed = true;
+        for (int key = 0; key < 1_000; key++) {
+            allServed &= ("V" + key).equals(cluster.read(key));
+        }
+        int loadsAfterRebalance = clusterLoads.get();
+        for (int key = 0; key < 1_000; key++) {
+            cluster.write(key, "N" + key);
+        }
+        cluster.addNode("node2", newCacheNode(sharedDatabase, clusterLoads, 2_000)); // Rejoins empty, must not serve old copies
+        boolean noStaleCopies = true;
+        for (int key = 0; key < 1_000; key++) {
+            noStaleCopies &= ("N" + key).equals(cluster.read(key));
+        }
+        System.out.println("Replication factor 2, 1000 keys: add node5 moved " + movedOnAdd + ", remove node2 moved " + movedOnRemove
+                + ", database loads afterwards: " + loadsAfterRebalance + ", copies held: " + cluster.getCurrentSize());
+        System.out.println((movementBounded && allServed && loadsAfterRebalance == 0 && noStaleCopies && movedOnAdd > 0 && movedOnAdd < 700) ? "✅ PASS\n" : "❌ FAIL\n");
+        cluster.shutdown();
+
+        // Test 36: Distributed Cache Throughput From 1 to 8 Nodes
+        System.out.println("Test 36: Distributed Cache Throughput From 1 to 8 Nodes");
+        System.out.println("--------------------------------------------------------");
+        int clusterKeys = 8_000;
+        Map<Integer, String> clusterRows = new HashMap<>();
+        for (int key = 0; key < clusterKeys; key++) {
+            clusterRows.put(key, "V" + key);
+        }
+        sharedDatabase.putAll(clusterRows);
+        long[] clusterThroughput = new long[9];
+        double[] clusterHitRate = new double[9];
+        for (int nodes : new int[]{1, 2, 4, 8}) {
+            AtomicInteger scalingLoads = new AtomicInteger(0);
+            DistributedCache<Integer, String> scalingCluster = new DistributedCache<>(160, 1);
+            for (int node = 1; node <= nodes; node++) {
+                scalingCluster.addNode("node" + node, newCacheNode(sharedDatabase, scalingLoads, 1_000)); // Each node holds 1/8 of the keys
+            }
+            for (int key = 0; key < clusterKeys; key++) {
+                scalingCluster.read(key); // Warm up, measure the steady state only
+            }
+            Thread.sleep(50);
+            scalingLoads.set(0);
+            LongAdder clusterOps = new LongAdder();
+            long clusterDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+            Thread[] clusterClients = new Thread[4];
+            for (int t = 0; t < clusterClients.length; t++) {
+                clusterClients[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < clusterDeadline) {
+                        for (int i = 0; i < 100; i++) {
+                            scalingCluster.read(random.nextInt(clusterKeys));
+                        }
+                        clusterOps.add(100);
+                    }
+                });
+                clusterClients[t].start();
+            }
+            for (Thread client : clusterClients) {
+                client.join();
+            }
+            clusterThroughput[nodes] = clusterOps.sum() / 300;
+            clusterHitRate[nodes] = 1 - (double) scalingLoads.get() / clusterOps.sum();
+            System.out.printf("%d node(s): %d ops/ms, hit rate %.1f%%%n", nodes, clusterThroughput[nodes], clusterHitRate[nodes] * 100);
+            scalingCluster.shutdown();
+        }
+        System.out.println((clusterHitRate[8] > 0.9 && clusterHitRate[8] > clusterHitRate[1] && clusterThroughput[8] > clusterThroughput[1]) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    // Test 37: warm start from a snapshot taken under writes. Test 38: snapshot and restore time for 1M entries
+    private static void runSnapshotTests() throws InterruptedException {
+        System.out.println("Test 37: Warm Start From a Snapshot");
+        System.out.println("------------------------------------");
+        Path snapshotDirectory;
+        try {
+            snapshotDirectory = Files.createTempDirectory("cache-snapshot");
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        Path snapshotFile = snapshotDirectory.resolve("cache.snapshot");
+        CacheSnapshotter<Integer, String> snapshotter = new CacheSnapshotter<>(new IntegerCodec(), new StringValueCodec());
+        Database<Integer, String> snapshotDatabase = new DatabaseImpl<>();
+        Map<Integer, String> snapshotRows = new HashMap<>();
+        for (int key = 0; key < 20_000; key++) {
+            snapshotRows.put(key, "V" + key);
+        }
+        snapshotDatabase.putAll(snapshotRows);
+        int[] snapshotTrace = zipfianTrace(300_000, 20_000, 0.9, 11);
+        AtomicInteger warmLoads = new AtomicInteger(0);
+        CachingOrchestrator<Integer, String> beforeRestart = newCacheNode(snapshotDatabase, warmLoads, 5_000);
+        for (int i = 0; i < 200_000; i++) {
+            beforeRestart.read(snapshotTrace[i]);
+        }
+
+        // Writes keep flowing while the snapshot runs
+        AtomicBoolean snapshotRunning = new AtomicBoolean(true);
+        AtomicLong writesDuringSnapshot = new AtomicLong(0);
+        AtomicLong slowestWriteNanos = new AtomicLong(0);
+        Thread snapshotWriter = new Thread(() -> {
+            int key = 0;
+            while (snapshotRunning.get()) {
+                long start = System.nanoTime();
+                beforeRestart.write(key % 1_000, "V" + (key % 1_000)); // Updates to hot keys, no evictions of dirty entries
+                slowestWriteNanos.accumulateAndGet(System.nanoTime() - start, Math::max);
+                writesDuringSnapshot.incrementAndGet();
+                key += 7;
+            }
+        });
+        snapshotWriter.start();
+        long snapshotStart = System.nanoTime();
+        long snapshotEntries = snapshotter.snapshotAsync(beforeRestart, snapshotFile).join();
+        long snapshotMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - snapshotStart);
+        snapshotRunning.set(false);
+        snapshotWriter.join();
+        beforeRestart.shutdown();
+
+        AtomicInteger coldLoads = new AtomicInteger(0);
+        AtomicInteger restoredLoads = new AtomicInteger(0);
+        CachingOrchestrator<Integer, String> coldStart = newCacheNode(snapshotDatabase, coldLoads, 5_000);
+        CachingOrchestrator<Integer, String> warmStart = newCacheNode(snapshotDatabase, restoredLoads, 5_000);
+        long restoredEntries;
+        try {
+            restoredEntries = snapshotter.restore(warmStart, snapshotFile);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        for (int i = 200_000; i < 205_000; i++) { // The first 5k requests after the restart
+            coldStart.read(snapshotTrace[i]);
+            warmStart.read(snapshotTrace[i]);
+        }
+        double coldHitRate = 1 - coldLoads.get() / 5_000.0;
+        double warmHitRate = 1 - restoredLoads.get() / 5_000.0;
+        System.out.println("Snapshot of " + snapshotEntries + " entries in " + snapshotMs + "ms, " + writesDuringSnapshot.get() + " writes meanwhile (slowest "
+                + TimeUnit.NANOSECONDS.toMicros(slowestWriteNanos.get()) + "us), restored " + restoredEntries);
+        System.out.printf("Hit rate over the first 5k reads after restart: cold %.1f%%, restored %.1f%%%n", coldHitRate * 100, warmHitRate * 100);
+        coldStart.shutdown();
+        warmStart.shutdown();
+
+        // LRU order survives: a restore into half the capacity keeps the most recently used half
+        CachingOrchestrator<Integer, String> ordered = newCacheNode(snapshotDatabase, new AtomicInteger(), 100);
+        for (int key = 0; key < 100; key++) {
+            ordered.write(key, "V" + key);
+        }
+        ordered.read(0); // 0 becomes the most recently used
+        CachingOrchestrator<Integer, String> halfSize = newCacheNode(snapshotDatabase, new AtomicInteger(), 50);
+        boolean orderKept;
+        try {
+            snapshotter.snapshot(ordered, snapshotFile);
+            snapshotter.restore(halfSize, snapshotFile);
+            Thread.sleep(100);
+            Set<Integer> expected = new HashSet<>();
+            expected.add(0);
+            for (int key = 51; key < 100; key++) {
+                expected.add(key);
+            }
+            orderKept = halfSize.keySet().equals(expected);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        System.out.println("Restore into half the capacity kept the 50 most recently used keys: " + orderKept);
+        System.out.println((snapshotEntries >= 4_900 && restoredEntries == snapshotEntries && writesDuringSnapshot.get() > 0
+                && warmHitRate > coldHitRate + 0.2 && orderKept) ? "✅ PASS\n" : "❌ FAIL\n");
+        ordered.shutdown();
+        halfSize.shutdown();
+
+        System.out.println("Test 38: Snapshot and Restore Time for 1M Entries");
+        System.out.println("--------------------------------------------------");
+        int largeEntries = 1_000_000;
+        CachingOrchestrator<Integer, String> large = newCacheNode(snapshotDatabase, new AtomicInteger(), largeEntries);
+        Map<Integer, String> largeBatch = new LinkedHashMap<>();
+        for (int key = 0; key < largeEntries; key++) {
+            largeBatch.put(key, "value-" + key);
+            if (largeBatch.size() == 10_000) {
+                large.populateAll(largeBatch);
+                largeBatch = new LinkedHashMap<>();
+            }
+        }
+        Thread.sleep(500);
+        long largeSnapshotMs, largeRestoreMs, largeRestored, fileBytes;
+        try {
+            long start = System.nanoTime();
+            snapshotter.snapshot(large, snapshotFile);
+            largeSnapshotMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            fileBytes = Files.size(snapshotFile);
+            large.shutdown();
+            large = null;
+            System.gc();
+
+            CachingOrchestrator<Integer, String> largeRestore = newCacheNode(snapshotDatabase, new AtomicInteger(), largeEntries);
+            start = System.nanoTime();
+            largeRestored = snapshotter.restore(largeRestore, snapshotFile);
+            largeRestore.readAll(List.of(0, largeEntries - 1)); // Waits for the queued slot tasks
+            largeRestoreMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            largeRestore.shutdown();
+            Files.deleteIfExists(snapshotFile);
+            Files.deleteIfExists(snapshotDirectory);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        System.out.printf("1M entries, %.1fMB file: snapshot %dms (%d entries/ms), restore %dms (%d entries/ms), 10M would take ~%ds / ~%ds%n",
+                fileBytes / 1048576.0, largeSnapshotMs, largeEntries / Math.max(1, largeSnapshotMs), largeRestoreMs, largeEntries / Math.max(1, largeRestoreMs),
+                largeSnapshotMs / 100, largeRestoreMs / 100);
+        System.out.println((largeRestored == largeEntries) ? "✅ PASS\n" : "❌ FAIL\n");
+        snapshotter.shutdown();
+    }
+
+    // Test 39: write-through throughput with the 50ms simulated database, platform slots vs serial queues on virtual threads
+    private static void runExecutionModeTests() throws InterruptedException {
+        System.out.println("Test 39: Platform vs Virtual Slot Execution");
+        System.out.println("--------------------------------------------");
+        long[] modeMillis = new long[SlotExecutionMode.values().length];
+        boolean ordered = true;
+        for (SlotExecutionMode mode : SlotExecutionMode.values()) {
+            Database<String, String> modeDatabase = new DatabaseImpl<>();
+            CachingOrchestrator<String, String> modeOrchestrator = new CachingOrchestrator<>(
+                    new CacheImpl<>(), modeDatabase, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), new SingletonWeigher<>(), 10_000, null, 0, mode
+            );
+            List<String> modeKeys = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                modeKeys.add("key" + i);
+            }
+            long start = System.nanoTime();
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                List<String> share = modeKeys.subList(t * 50, (t + 1) * 50);
+                writers[t] = new Thread(() -> {
+                    for (String key : share) {
+                        modeOrchestrator.write(key, "first");
+                        modeOrchestrator.write(key, "second"); // Must reach the database after "first"
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            Map<String, String> readBack = modeOrchestrator.readAll(modeKeys); // Ordered after every queued write
+            modeMillis[mode.ordinal()] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            for (String key : modeKeys) {
+                ordered &= "second".equals(readBack.get(key)) && "second".equals(modeDatabase.getValue(key));
+            }
+            System.out.println(mode + ": 400 write-through writes in " + modeMillis[mode.ordinal()] + "ms (" + 400_000 / Math.max(1, modeMillis[mode.ordinal()]) + " writes/s), "
+                    + modeOrchestrator.getStats().getSlotQueueDepths().length + " slots");
+            modeOrchestrator.shutdown();
+        }
+        System.out.println("Every key ended with its last write, in the cache and the database: " + ordered);
+        System.out.println((ordered && modeMillis[SlotExecutionMode.VIRTUAL.ordinal()] * 4 < modeMillis[SlotExecutionMode.PLATFORM.ordinal()]) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    // Test 40: LongLongCache against an access-ordered LinkedHashMap. Test 41: memory per entry and ops/ms against the boxed path
+    private static void runLongLongCacheTests() throws InterruptedException {
+        System.out.println("Test 40: LongLongCache Matches a Reference LRU");
+        System.out.println("-----------------------------------------------");
+        int referenceCapacity = 1_000;
+        LongLongCache primitiveCache = new LongLongCache(referenceCapacity);
+        Map<Long, Long> referenceLru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > referenceCapacity;
+            }
+        };
+        Random operations = new Random(7);
+        boolean matches = true;
+        for (int i = 0; i < 1_000_000 && matches; i++) {
+            long key = operations.nextInt(3_000);
+            int operation = operations.nextInt(10);
+            if (operation < 5) {
+                Long expected = referenceLru.get(key);
+                matches = primitiveCache.read(key, Long.MIN_VALUE) == (expected == null ? Long.MIN_VALUE : expected);
+            }
+            else if (operation < 9) {
+                primitiveCache.write(key, i);
+                referenceLru.put(key, (long) i);
+            }
+            else {
+                matches = primitiveCache.delete(key) == (referenceLru.remove(key) != null);
+            }
+            matches &= primitiveCache.size() == referenceLru.size();
+        }
+        System.out.println("1M random reads/writes/deletes, same results as LinkedHashMap in access order: " + matches + ", evictions: " + primitiveCache.getEvictionCount());
+        System.out.println(matches ? "✅ PASS\n" : "❌ FAIL\n");
+
+        System.out.println("Test 41: LongLongCache vs Boxed Orchestrator, Memory and Throughput");
+        System.out.println("--------------------------------------------------------------------");
+        int entries = 200_000;
+        long baseline = usedHeap();
+        LongLongCache primitive = new LongLongCache(entries);
+        for (long key = 0; key < entries; key++) {
+            primitive.write(key * 31, key);
+        }
+        long primitiveBytes = usedHeap() - baseline;
+
+        baseline = usedHeap();
+        Database<Long, Long> boxedDatabase = new DatabaseImpl<>();
+        CachingOrchestrator<Long, Long> boxed = new CachingOrchestrator<>(new CacheImpl<>(), boxedDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(boxedDatabase, 1_000, 60_000), entries);
+        Map<Long, Long> boxedBatch = new HashMap<>();
+        for (long key = 0; key < entries; key++) {
+            boxedBatch.put(key * 31, key);
+            if (boxedBatch.size() == 10_000) {
+                boxed.populateAll(boxedBatch);
+                boxedBatch = new HashMap<>();
+            }
+        }
+        boxed.readAll(List.of(0L)); // Waits for the slot tasks of its slot
+        Thread.sleep(200);
+        long boxedBytes = usedHeap() - baseline;
+        System.out.printf("Memory per entry: LongLongCache %d bytes, CachingOrchestrator<Long, Long> %d bytes%n", primitiveBytes / entries, boxedBytes / entries);
+
+        int[] trace = zipfianTrace(1 << 20, entries * 2, 0.99, 5);
+        long primitiveOpsPerMs = 0, boxedOpsPerMs = 0, sink = 0;
+        for (int round = 0; round < 3; round++) { // Best of 3, the first round warms up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < trace.length; i++) {
+                long key = trace[i] * 31L;
+                if ((i & 15) == 0) primitive.write(key, i);
+                else sink += primitive.read(key, 0);
+            }
+            primitiveOpsPerMs = Math.max(primitiveOpsPerMs, trace.length * 1_000_000L / (System.nanoTime() - start));
+
+            start = System.nanoTime();
+            for (int i = 0; i < trace.length; i++) {
+                long key = trace[i] * 31L;
+                if ((i & 15) == 0) boxed.write(key, (long) i);
+                else {
+                    Long value = boxed.read(key);
+                    if (value != null) sink += value;
+                }
+            }
+            boxedOpsPerMs = Math.max(boxedOpsPerMs, trace.length * 1_000_000L / (System.nanoTime() - start));
+        }
+        System.out.println("Zipfian 94% reads / 6% writes: LongLongCache " + primitiveOpsPerMs + " ops/ms, CachingOrchestrator<Long, Long> " + boxedOpsPerMs + " ops/ms (sink " + (sink & 1) + ")");
+        System.out.println((primitiveBytes * 3 < boxedBytes && primitiveOpsPerMs > boxedOpsPerMs) ? "✅ PASS\n" : "❌ FAIL\n");
+        boxed.shutdown();
+    }
+
+    // Test 42: every removal cause is reported. Test 43: a slow listener under each overflow policy doesn't slow down writes
+    private static void runRemovalListenerTests() throws InterruptedException {
+        System.out.println("Test 42: Removal Causes");
+        System.out.println("------------------------");
+        List<RemovalNotification<String, String>> received = Collections.synchronizedList(new ArrayList<>());
+        Database<String, String> listenedDatabase = new DatabaseImpl<>();
+        CachingOrchestrator<String, String> listened = new CachingOrchestrator<>(
+                new CacheImpl<>(), listenedDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(listenedDatabase, 100, 60_000), 3
+        );
+        RemovalDispatcher<String, String> causesDispatcher = listened.setRemovalListener(received::add, 100, 16, OverflowPolicy.BLOCK);
+        listened.write("a", "A1");
+        listened.write("b", "B");
+        listened.write("c", "C");
+        listened.write("a", "A2"); // Replaces A1, b becomes the least recently used
+        listened.write("d", "D"); // Evicts b
+        listened.invalidate("c");
+        listened.write("e", "E", 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(300);
+        Set<String> notifications = new TreeSet<>();
+        received.forEach(notification -> notifications.add(notification.toString()));
+        System.out.println("Notifications: " + notifications + " | " + causesDispatcher);
+        System.out.println(notifications.equals(Set.of("a=A1 (REPLACED)", "b=B (EVICTED)", "c=C (EXPLICIT)", "e=E (EXPIRED)")) ? "✅ PASS\n" : "❌ FAIL\n");
+        listened.shutdown();
+
+        System.out.println("Test 43: Slow Listener Under Each Overflow Policy");
+        System.out.println("--------------------------------------------------");
+        boolean policiesHold = true;
+        long baselineP99 = 0;
+        for (OverflowPolicy policy : new OverflowPolicy[]{null, OverflowPolicy.DROP_NEWEST, OverflowPolicy.DROP_OLDEST, OverflowPolicy.BLOCK}) {
+            Database<Integer, String> slowListenedDatabase = new DatabaseImpl<>();
+            CachingOrchestrator<Integer, String> slowListened = new CachingOrchestrator<>(
+                    new CacheImpl<>(), slowListenedDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(slowListenedDatabase, 100, 60_000), 100
+            );
+            RemovalDispatcher<Integer, String> dispatcher = policy == null ? null
+                    : slowListened.setRemovalListener(notification -> LockSupport.parkNanos(1_000_000), 64, 16, policy); // 1ms per notification
+            long[] writeNanos = new long[1_000];
+            for (int key = 0; key < writeNanos.length; key++) {
+                long start = System.nanoTime();
+                slowListened.populate(key, "V" + key); // 900 evictions
+                writeNanos[key] = System.nanoTime() - start;
+            }
+            Arrays.sort(writeNanos);
+            long writeP99 = percentile(writeNanos, 0.99);
+            slowListened.shutdown(); // Delivers whatever is still queued
+            if (policy == null) {
+                baselineP99 = writeP99;
+                System.out.println("No listener: write p99 " + writeP99 / 1000 + "us");
+                continue;
+            }
+            System.out.println(policy + ": write p99 " + writeP99 / 1000 + "us | " + dispatcher);
+            boolean accounted = dispatcher.getDeliveredCount() + dispatcher.getDroppedCount() == dispatcher.getPublishedCount();
+            boolean dropsMatchPolicy = policy == OverflowPolicy.BLOCK ? dispatcher.getDroppedCount() == 0 : dispatcher.getDroppedCount() > 0;
+            policiesHold &= accounted && dropsMatchPolicy && dispatcher.getPublishedCount() >= 890 && writeP99 < Math.max(10 * baselineP99, 500_000);
+        }
+        System.out.println(policiesHold ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runWriteFailureTests() throws InterruptedException {
+        System.out.println("Test 44: Write-Back Keeps Dirty Entries When the Database Fails");
+        System.out.println("----------------------------------------------------------------");
+        RecordingDatabase<String, String> flakyDatabase = new RecordingDatabase<>();
+        WriteBackStrategy<String, String> retryingWriteBack = new WriteBackStrategy<>(flakyDatabase, 100, 50);
+        CachingOrchestrator<String, String> flakyOrchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), flakyDatabase, new LRUEvictionStrategy<>(), retryingWriteBack, 100
+        );
+        flakyDatabase.failNextWrites(2); // The first two periodic flushes fail
+        for (int i = 0; i < 10; i++) {
+            flakyOrchestrator.write("flaky" + i, "V" + i);
+        }
+        flakyOrchestrator.read("flaky0");
+        Thread.sleep(500);
+        boolean allPersisted = true;
+        for (int i = 0; i < 10; i++) {
+            allPersisted &= ("V" + i).equals(flakyDatabase.getValue("flaky" + i));
+        }
+        System.out.println("Persisted after two failed flushes: " + allPersisted + ", still dirty: " + retryingWriteBack.getDirtyCount() + ", putAll calls that succeeded: " + flakyDatabase.getPutAllCalls());
+        flakyOrchestrator.shutdown();
+        System.out.println((allPersisted && retryingWriteBack.getDirtyCount() == 0) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runLoadRaceTests() throws InterruptedException {
+        System.out.println("Test 45: A Load Never Overwrites a Newer Write");
+        System.out.println("-----------------------------------------------");
+        String afterWrite = readAfterRacingLoad(false, false);
+        String afterWriteAndInvalidate = readAfterRacingLoad(true, false);
+        System.out.println("Loader read v1, then v2 was written: " + afterWrite + ", then v2 was written and invalidated: " + afterWriteAndInvalidate);
+        System.out.println(("v2".equals(afterWrite) && "v2".equals(afterWriteAndInvalidate)) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runExpiryTickerTests() throws InterruptedException {
+        System.out.println("Test 46: No Expiry Ticker Until an Entry Can Expire");
+        System.out.println("----------------------------------------------------");
+        long tickersBefore = countThreads("cache-maintenance");
+        Database<String, String> idleDatabase = new DatabaseImpl<>();
+        CachingOrchestrator<String, String> idle = new CachingOrchestrator<>(
+                new CacheImpl<>(), idleDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(idleDatabase, 100, 60_000), 100
+        );
+        idle.write("plain", "P");
+        idle.read("plain");
+        Thread.sleep(50);
+        long tickersWithoutTtl = countThreads("cache-maintenance") - tickersBefore;
+        idle.write("short-lived", "S", 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(200);
+        long tickersWithTtl = countThreads("cache-maintenance") - tickersBefore;
+        int sizeAfterExpiry = idle.getCurrentSize(); // The ticker removed the TTL entry
+        idle.shutdown();
+        System.out.println("Maintenance threads started without TTLs: " + tickersWithoutTtl + ", after a TTL write: " + tickersWithTtl + ", entries left 200ms later: " + sizeAfterExpiry);
+        System.out.println((tickersWithoutTtl == 0 && tickersWithTtl == 1 && sizeAfterExpiry == 1) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        System.out.println("Test 47: Expiring a Dirty Entry Doesn't Block Writers of Its Map Bin");
+        System.out.println("---------------------------------------------------------------------");
+        RecordingDatabase<String, String> expiryDatabase = new RecordingDatabase<>();
+        CachingOrchestrator<String, String> binShared = new CachingOrchestrator<>(
+                new CacheImpl<>(), expiryDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(expiryDatabase, 100, 60_000), 100
+        );
+        // "Aa" and "BB" have the same hashCode, so they share a bin of keyToWeightMapping
+        binShared.write("Aa", "dirty", 20, TimeUnit.MILLISECONDS);
+        long longestWriteNanos = 0;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        for (int i = 0; System.nanoTime() < end; i++) {
+            long start = System.nanoTime();
+            binShared.write("BB", "B" + i);
+            longestWriteNanos = Math.max(longestWriteNanos, System.nanoTime() - start);
+            Thread.sleep(1);
+        }
+        boolean persistedOnExpiry = "dirty".equals(expiryDatabase.getValue("Aa")); // beforeEvict() wrote it, 50ms database latency
+        binShared.shutdown();
+        System.out.println("Expired dirty entry persisted: " + persistedOnExpiry + ", longest write to the same bin meanwhile: " + TimeUnit.NANOSECONDS.toMillis(longestWriteNanos) + "ms");
+        System.out.println((persistedOnExpiry && longestWriteNanos < TimeUnit.MILLISECONDS.toNanos(25)) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runBulkLoadRaceTests() throws InterruptedException {
+        System.out.println("Test 48: Bulk Loads Are Coalesced and Never Overwrite a Newer Write");
+        System.out.println("---------------------------------------------------------------------");
+        String afterBulkWrite = readAfterRacingLoad(false, true);
+        String afterBulkWriteAndInvalidate = readAfterRacingLoad(true, true);
+        AtomicInteger coalescedLoads = new AtomicInteger();
+        CountDownLatch bulkLoading = new CountDownLatch(1);
+        CountDownLatch releaseBulkLoad = new CountDownLatch(1);
+        CacheLoader<String, String> blockingLoader = key -> {
+            coalescedLoads.incrementAndGet();
+            bulkLoading.countDown();
+            try {
+                releaseBulkLoad.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "loaded-" + key;
+        };
+        CachingOrchestrator<String, String> coalescing = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100, blockingLoader
+        );
+        Thread bulkReader = new Thread(() -> coalescing.readAll(List.of("shared")));
+        bulkReader.start();
+        bulkLoading.await();
+        String[] singleRead = new String[1];
+        Thread singleReader = new Thread(() -> singleRead[0] = coalescing.read("shared")); // Misses while the bulk load is in flight
+        singleReader.start();
+        Thread.sleep(50);
+        releaseBulkLoad.countDown();
+        bulkReader.join();
+        singleReader.join();
+        coalescing.shutdown();
+        System.out.println("Loader read v1, then v2 was written: " + afterBulkWrite + ", then v2 was written and invalidated: " + afterBulkWriteAndInvalidate);
+        System.out.println("Loads for a key read by readAll() and read() at once: " + coalescedLoads.get() + ", read() got: " + singleRead[0]);
+        System.out.println(("v2".equals(afterBulkWrite) && "v2".equals(afterBulkWriteAndInvalidate) && coalescedLoads.get() == 1
+                && "loaded-shared".equals(singleRead[0])) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runRefreshBackoffTests() throws InterruptedException {
+        System.out.println("Test 49: A Refresh That Finds No Value Backs Off");
+        System.out.println("-------------------------------------------------");
+        AtomicInteger emptyLoads = new AtomicInteger(0);
+        CacheLoader<String, String> emptyLoader = key -> {
+            emptyLoads.incrementAndGet();
+            return null; // Deleted from the source behind the cache's back
+        };
+        CachingOrchestrator<String, String> refreshing = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100, emptyLoader
+        );
+        refreshing.enableRefreshAfterWrite(50, TimeUnit.MILLISECONDS, 1);
+        refreshing.write("gone", "G");
+        refreshing.read("gone"); // Waits for the write-through
+        Set<String> served = new HashSet<>();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300); // ~6 refresh intervals
+        while (System.nanoTime() < end) {
+            served.add(String.valueOf(refreshing.read("gone")));
+            LockSupport.parkNanos(100_000);
+        }
+        refreshing.shutdown();
+        System.out.println("Refresh loads over 300ms with a 50ms refreshAfterWrite: " + emptyLoads.get() + ", values served: " + served);
+        System.out.println((emptyLoads.get() <= 7 && served.equals(Set.of("G"))) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runReplicaOrderingTests() throws InterruptedException {
+        System.out.println("Test 50: Replicas Apply Writes to a Key in the Primary's Order");
+        System.out.println("---------------------------------------------------------------");
+        Database<String, String> replicatedDatabase = new DatabaseImpl<>();
+        CountDownLatch replicaStalled = new CountDownLatch(1);
+        CountDownLatch resumeReplica = new CountDownLatch(1);
+        AtomicBoolean stallNext = new AtomicBoolean(true);
+        DistributedCache<String, String> replicated = new DistributedCache<>(160, 2);
+        List<CachingOrchestrator<String, String>> replicaNodes = new ArrayList<>();
+        for (int node = 1; node <= 2; node++) {
+            // The first replica update stalls between the primary write and the replica, like a descheduled writer would
+            CachingOrchestrator<String, String> replicaNode = new CachingOrchestrator<>(
+                    new CacheImpl<>(), replicatedDatabase, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100) {
+                @Override
+                void populate(String key, String value) {
+                    if (stallNext.compareAndSet(true, false)) {
+                        replicaStalled.countDown();
+                        try {
+                            resumeReplica.await();
+                        }
+                        catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    super.populate(key, value);
+                }
+            };
+            replicaNodes.add(replicaNode);
+            replicated.addNode("node" + node, replicaNode);
+        }
+        Thread olderWriter = new Thread(() -> replicated.write("ordered", "older"));
+        olderWriter.start();
+        replicaStalled.await();
+        Thread newerWriter = new Thread(() -> replicated.write("ordered", "newer"));
+        newerWriter.start();
+        Thread.sleep(50);
+        resumeReplica.countDown();
+        olderWriter.join();
+        newerWriter.join();
+        List<String> copies = new ArrayList<>();
+        for (CachingOrchestrator<String, String> replicaNode : replicaNodes) {
+            copies.add(replicaNode.read("ordered"));
+        }
+        replicated.shutdown();
+        System.out.println("Copies after a stalled older write and a newer one: " + copies);
+        System.out.println(copies.equals(List.of("newer", "newer")) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runListenerErrorTests() throws InterruptedException {
+        System.out.println("Test 51: A Listener Error Doesn't Stop the Dispatcher");
+        System.out.println("------------------------------------------------------");
+        AtomicBoolean firstNotification = new AtomicBoolean(true);
+        Database<Integer, String> erringDatabase = new DatabaseImpl<>();
+        CachingOrchestrator<Integer, String> erring = new CachingOrchestrator<>(
+                new CacheImpl<>(), erringDatabase, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(erringDatabase, 100, 60_000), 3
+        );
+        RemovalDispatcher<Integer, String> erringDispatcher = erring.setRemovalListener(notification -> {
+            if (firstNotification.getAndSet(false)) throw new AssertionError("listener bug");
+        }, 4, 2, OverflowPolicy.BLOCK);
+        Thread evictingWriter = new Thread(() -> {
+            for (int key = 0; key < 50; key++) {
+                erring.populate(key, "V" + key); // 47 evictions through a queue of 4
+            }
+        });
+        evictingWriter.setDaemon(true); // Blocks forever on the full queue if the dispatcher died
+        evictingWriter.start();
+        evictingWriter.join(5_000);
+        boolean writerFinished = !evictingWriter.isAlive();
+        if (writerFinished) erring.shutdown();
+        System.out.println("Writer finished: " + writerFinished + " | " + erringDispatcher);
+        System.out.println((writerFinished && erringDispatcher.getFailedCount() == 1
+                && erringDispatcher.getDeliveredCount() == erringDispatcher.getPublishedCount() - 1) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runSerialExecutorErrorTests() throws InterruptedException {
+        System.out.println("Test 52: A Slot Task Error Doesn't Strand the Rest of Its Queue");
+        System.out.println("----------------------------------------------------------------");
+        CountDownLatch uncaughtError = new CountDownLatch(1);
+        ExecutorService backingPool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "serial-test-worker");
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, ex) -> uncaughtError.countDown());
+            return thread;
+        });
+        SerialExecutor serial = new SerialExecutor(backingPool);
+        CountDownLatch queued = new CountDownLatch(1);
+        AtomicInteger ranAfterError = new AtomicInteger(0);
+        serial.execute(() -> {
+            try {
+                queued.await(); // Holds the queue until the failing task and the ones behind it are all queued
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        serial.execute(() -> {
+            throw new AssertionError("slot task bug");
+        });
+        for (int i = 0; i < 3; i++) {
+            serial.execute(ranAfterError::incrementAndGet);
+        }
+        queued.countDown();
+        serial.shutdown();
+        boolean terminated = serial.awaitTermination(5, TimeUnit.SECONDS);
+        boolean errorPropagated = uncaughtError.await(5, TimeUnit.SECONDS); // Like on a pool thread, the Error still kills the worker
+        backingPool.shutdown();
+        System.out.println("Tasks run after the Error: " + ranAfterError.get() + "/3, Error reached the worker: " + errorPropagated + ", terminated: " + terminated);
+        System.out.println((ranAfterError.get() == 3 && errorPropagated && terminated) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static void runWriteBackBindingTests() throws InterruptedException {
+        System.out.println("Test 53: Write-Back Only Flushes Into Its Own Database");
+        System.out.println("-------------------------------------------------------");
+        RecordingDatabase<String, String> boundDatabase = new RecordingDatabase<>();
+        RecordingDatabase<String, String> otherDatabase = new RecordingDatabase<>();
+        WriteBackStrategy<String, String> boundWriteBack = new WriteBackStrategy<>(boundDatabase, 100, 60_000);
+        boundWriteBack.flush(); // Nothing written yet, nothing to do
+        boundWriteBack.write(new CacheImpl<>(), boundDatabase, "mine", "M");
+        boolean otherRejected = false;
+        try {
+            boundWriteBack.write(new CacheImpl<>(), otherDatabase, "theirs", "T"); // Like a second orchestrator sharing the instance
+        }
+        catch (IllegalArgumentException ex) {
+            otherRejected = true;
+        }
+        boundWriteBack.flush();
+        boundWriteBack.shutdown(boundDatabase);
+        System.out.println("Other database rejected: " + otherRejected + ", bound database holds: " + boundDatabase.getValue("mine") + "/" + boundDatabase.getValue("theirs")
+                + ", other database holds: " + otherDatabase.getValue("mine") + "/" + otherDatabase.getValue("theirs"));
+        System.out.println((otherRejected && "M".equals(boundDatabase.getValue("mine")) && boundDatabase.getValue("theirs") == null
+                && otherDatabase.getPersistedCount("mine") == 0 && otherDatabase.getPersistedCount("theirs") == 0) ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    private static long countThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals(name)).count();
+    }
+
+    // A read misses and loads v1, a write of v2 (optionally invalidated right after) completes before the loader returns
+    private static String readAfterRacingLoad(boolean invalidateWrite, boolean bulkRead) throws InterruptedException {
+        Database<String, String> database = new DatabaseImpl<>();
+        database.put("raced", "v1");
+        CountDownLatch loaderRead = new CountDownLatch(1);
+        CountDownLatch raced = new CountDownLatch(1);
+        CacheLoader<String, String> slowLoader = key -> {
+            String value = database.getValue(key);
+            loaderRead.countDown();
+            try {
+                raced.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        };
+        CachingOrchestrator<String, String> orchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), database, new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100, slowLoader
+        );
+        Thread reader = new Thread(() -> {
+            if (bulkRead) orchestrator.readAll(List.of("raced"));
+            else orchestrator.read("raced");
+        });
+        reader.start();
+        loaderRead.await();
+        orchestrator.write("raced", "v2");
+        orchestrator.read("raced"); // Ordered after the write, so it has completed
+        if (invalidateWrite) orchestrator.invalidate("raced");
+        raced.countDown();
+        reader.join();
+        String after = orchestrator.read("raced");
+        orchestrator.shutdown();
+        return after;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // One DistributedCache node in front of the shared database, counting its read-through loads
+    private static CachingOrchestrator<Integer, String> newCacheNode(Database<Integer, String> database, AtomicInteger loads, int capacity) {
+        CacheLoader<Integer, String> countingLoader = key -> {
+            loads.incrementAndGet();
+            return database.getValue(key);
+        };
+        return new CachingOrchestrator<>(new CacheImpl<>(), database, new LRUEvictionStrategy<>(), new WriteBackStrategy<>(database, 500, 50), capacity, countingLoader);
+    }
+
+    // Hammers accessed() on a pre-populated strategy for a fixed window and returns {calls, recorded accesses} per millisecond.
+    // A buffered strategy drops hits when a buffer is full or contended, those calls return but are not recorded
+    private static long[] measureHitThroughput(EvictionStrategy<Integer, Integer> strategy, int threads) throws InterruptedException {
+        final int keys = 1024;
+        final long durationMs = 200;
+        Integer[] boxedKeys = new Integer[keys]; // Boxed once, boxing in the loop made the result depend on escape analysis
+        for (int i = 0; i < keys; i++) {
+            boxedKeys[i] = i;
+            strategy.accessed(boxedKeys[i], boxedKeys[i]);
+        }
+
+        LongAdder operations = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                int key = ThreadLocalRandom.current().nextInt(keys);
+                long count = 0;
+                try {
+                    start.await(); // Threads started early would otherwise run before the window opens
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                while (running.get()) {
+                    strategy.accessed(boxedKeys[key], boxedKeys[key]);
+                    key = (key + 1) & (keys - 1);
+                    count++;
+                }
+                operations.add(count);
+                done.countDown();
+            }).start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMs);
+        running.set(false);
+        double elapsedMs = (System.nanoTime() - startNanos) / 1e6;
+        done.await();
+        long recorded = strategy instanceof BufferedLRUEvictionStrategy ? ((BufferedLRUEvictionStrategy<Integer, Integer>) strategy).getReplayedAccesses() : operations.sum();
+        return new long[]{(long) (operations.sum() / elapsedMs), (long) (recorded / elapsedMs)};
+    }
+
+    // Writes random keys into a 1,000 entry orchestrator from several threads, returns writes per millisecond until all are applied
+    private static double timeOrchestratorWrites(WriteStrategy<Integer, Integer> writeStrategy, int threads, int writesPerThread) throws InterruptedException {
+        CachingOrchestrator<Integer, Integer> orchestrator = new CachingOrchestrator<>(
+                new CacheImpl<>(), new DatabaseImpl<>(), new LRUEvictionStrategy<>(), writeStrategy, 1_000
+        );
+        long startNanos = System.nanoTime();
+        runWriters(threads, writesPerThread, orchestrator::write);
+        orchestrator.shutdown(); // Waits for the slot executors
+        return threads * (double) writesPerThread * 1e6 / (System.nanoTime() - startNanos);
+    }
+
+    /*
+        The previous admission, kept here for comparison: one sizeLock around the membership check, the eviction loop and the
+        bookkeeping, then the cache write on the key's slot executor. It keeps the bookkeeping write() has gained since
+        (weigher, stats, write versions and stamps, expiry cancel), so only the admission differs from timeOrchestratorWrites.
+        Returns writes per millisecond until all are applied.
+     */
+    private static double timeSizeLockWrites(int threads, int writesPerThread) throws InterruptedException {
+        final int capacity = 1_000, slotCount = 10, stampStripes = 4096;
+        Object sizeLock = new Object();
+        Cache<Integer, Integer> cache = new CacheImpl<>();
+        EvictionStrategy<Integer, Integer> evictionStrategy = new LRUEvictionStrategy<>();
+        Weigher<Integer, Integer> weigher = new SingletonWeigher<>();
+        StatsCounter statsCounter = new StatsCounter();
+        TimerWheel<Integer> timerWheel = new TimerWheel<>(0);
+        Map<Integer, Integer> keyToWeight = new ConcurrentHashMap<>();
+        Map<Integer, Integer> pendingMutations = new ConcurrentHashMap<>();
+        Map<Integer, Long> keyToWriteVersion = new ConcurrentHashMap<>();
+        Map<Integer, Long> keyToWriteNanos = new ConcurrentHashMap<>();
+        AtomicLong writeSequence = new AtomicLong(0);
+        AtomicLongArray writeStamps = new AtomicLongArray(stampStripes);
+        AtomicLong totalWeight = new AtomicLong(0);
+        AtomicInteger size = new AtomicInteger(0);
+        List<ExecutorService> slots = new ArrayList<>();
+        for (int i = 0; i < slotCount; i++) slots.add(Executors.newSingleThreadExecutor());
+
+        long startNanos = System.nanoTime();
+        runWriters(threads, writesPerThread, (key, value) -> {
+            long writeStartNanos = statsCounter.startTimer();
+            int weight = weigher.weigh(key, value);
+            List<Integer> evictedKeys = new ArrayList<>();
+            synchronized (sizeLock) {
+                pendingMutations.merge(key, 1, Integer::sum);
+                Integer existingWeight = keyToWeight.get(key);
+                long delta = weight - (existingWeight == null ? 0 : existingWeight);
+                while (totalWeight.get() + delta > capacity) {
+                    Integer evictedKey = evictionStrategy.evict();
+                    if (evictedKey == null) break;
+                    Integer evictedWeight = keyToWeight.remove(evictedKey);
+                    if (evictedWeight == null) continue;
+                    statsCounter.recordEviction();
+                    keyToWriteVersion.remove(evictedKey);
+                    keyToWriteNanos.remove(evictedKey);
+                    totalWeight.addAndGet(-evictedWeight);
+                    size.decrementAndGet();
+                    if (evictedKey.equals(key)) {
+                        delta = weight;
+                    }
+                    else {
+                        pendingMutations.merge(evictedKey, 1, Integer::sum);
+                        evictedKeys.add(evictedKey);
+                    }
+                }
+                totalWeight.addAndGet(delta);
+                if (keyToWeight.put(key, weight) == null) size.incrementAndGet();
+                evictionStrategy.accessed(key, value);
+                long version = writeSequence.incrementAndGet();
+                keyToWriteVersion.put(key, version);
+                writeStamps.set((key ^ (key >>> 16)) & (stampStripes - 1), version);
+            }
+            for (Integer evictedKey : evictedKeys) {
+                slots.get(Math.abs(evictedKey % slotCount)).execute(() -> {
+                    cache.deleteByKey(evictedKey);
+                    timerWheel.cancel(evictedKey);
+                    pendingMutations.computeIfPresent(evictedKey, (k, count) -> count == 1 ? null : count - 1);
+                });
+            }
+            slots.get(Math.abs(key % slotCount)).execute(() -> {
+                cache.put(key, value);
+                timerWheel.cancel(key);
+                pendingMutations.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+            });
+            statsCounter.recordWrite(writeStartNanos);
+        });
+        for (ExecutorService slot : slots) {
+            slot.shutdown();
+            slot.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        return threads * (double) writesPerThread * 1e6 / (System.nanoTime() - startNanos);
+    }
+
+    // Starts the writers together and returns once the last one has handed over its writes
+    private static void runWriters(int threads, int writesPerThread, java.util.function.BiConsumer<Integer, Integer> write) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < writesPerThread; i++) {
+                    write.accept(ThreadLocalRandom.current().nextInt(10_000), i);
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+    }
+
+    // Replays a key trace against an eviction strategy the same way CachingOrchestrator drives it, returns the hit rate
+    private static double replayTrace(EvictionStrategy<Integer, Integer> strategy, int[] trace, int capacity) {
+        Set<Integer> resident = new HashSet<>();
+        long hits = 0;
+        for (int key : trace) {
+            if (resident.contains(key)) {
+                hits++;
+            }
+            else {
+                if (resident.size() >= capacity) {
+                    resident.remove(strategy.evict());
+                }
+                resident.add(key);
+            }
+            strategy.accessed(key, key);
+        }
+        return (double) hits / trace.length;
+    }
+
+    // Keys drawn from a Zipf distribution over [0, items), rank 0 being the hottest
+    private static int[] zipfianTrace(int length, int items, double skew, long seed) {
+        double[] cdf = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+        return trace;
+    }
+
+    // Zipfian traffic where every 10th block of 1000 requests is replaced by a one-off scan over never repeated keys
+    private static int[] scanMixedTrace(int length, int items, double skew, long seed) {
+        int[] trace = zipfianTrace(length, items, skew, seed);
+        int scanKey = items;
+        for (int block = 0; block * 1000 < length; block += 10) {
+            for (int i = block * 1000; i < Math.min(length, (block + 1) * 1000); i++) {
+                trace[i] = scanKey++;
+            }
+        }
+        return trace;
+    }
+
+    // Expects a sorted array
+    private static long percentile(long[] sortedValues, double percentile) {
+        return sortedValues[(int) Math.min(sortedValues.length - 1, Math.round(percentile * (sortedValues.length - 1)))];
+    }
+
+    // Database that remembers every value it persisted, in order, to verify durability and ordering of write strategies
+    private static class RecordingDatabase<K, V> implements Database<K, V> {
+        private final Database<K, V> delegate = new DatabaseImpl<>();
+        private final List<Map.Entry<K, V>> persisted = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger putAllCalls = new AtomicInteger(0);
+        private final AtomicInteger getAllCalls = new AtomicInteger(0);
+        private final AtomicInteger failingWrites = new AtomicInteger(0);
+
+        @Override
+        public V getValue(K key) {
+            return delegate.getValue(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            failIfRequested();
+            delegate.put(key, value);
+            persisted.add(Map.entry(key, value));
+        }
+
+        @Override
+        public void putAll(Map<K, V> entries) {
+            failIfRequested();
+            delegate.putAll(entries);
+            putAllCalls.incrementAndGet();
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                persisted.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        @Override
+        public Map<K, V> getAll(Collection<K> keys) {
+            getAllCalls.incrementAndGet();
+            return delegate.getAll(keys);
+        }
+
+        @Override
+        public void deleteByKey(K key) {
+            delegate.deleteByKey(key);
+        }
+
+        // The next count put/putAll calls throw, like a database that is briefly unreachable
+        public void failNextWrites(int count) {
+            failingWrites.set(count);
+        }
+
+        private void failIfRequested() {
+            if (failingWrites.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) throw new IllegalStateException("Simulated database outage");
+        }
+
+        public int getGetAllCalls() {
+            return getAllCalls.get();
+        }
+
+        public int getPutAllCalls() {
+            return putAllCalls.get();
+        }
+
+        public int getPersistedCount(K key) {
+            return getPersistedValues(key).size();
+        }
+
+        public List<V> getPersistedValues(K key) {
+            List<V> values = new ArrayList<>();
+            synchronized (persisted) {
+                for (Map.Entry<K, V> entry : persisted) {
+                    if (entry.getKey().equals(key)) values.add(entry.getValue());
+                }
+            }
+            return values;
+        }
+    }
+
+    // Fixed 4-byte big-endian encoding of Integer keys for snapshot tests
+    private static class IntegerCodec implements ValueCodec<Integer> {
+        @Override
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+
+        @Override
+        public Integer decode(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    }
+}
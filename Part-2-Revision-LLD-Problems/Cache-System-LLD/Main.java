@@ -1,5 +1,6 @@
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 
 interface Cache <K,V> {
@@ -16,7 +17,7 @@ class CacheImpl <K,V> implements Cache <K,V> {
         keyValueMappings.put(key, value);
     }
 
-    @Overide
+    @Override
     public V getByKey(K key) {
         return keyValueMappings.get(key);
     }
@@ -27,6 +28,120 @@ class CacheImpl <K,V> implements Cache <K,V> {
     }
 }
 
+// Direct-mapped table owned by a single thread, a key can only live in the slot its hash maps to
+class L1Table <K,V> {
+    private final Object [] keys;
+    private final Object [] values;
+    private final long [] versions;
+    private final int mask;
+    // Tables are created by the ThreadLocal initializer, so this is the thread the table belongs to
+    private final Thread owner = Thread.currentThread();
+
+    public L1Table(int size) {
+        this.keys = new Object[size];
+        this.values = new Object[size];
+        this.versions = new long[size];
+        this.mask = size - 1;
+    }
+
+    // Null unless the slot holds the key and was filled under the given version
+    @SuppressWarnings("unchecked")
+    public V get(int hash, K key, long version) {
+        int index = hash & mask;
+        if (versions[index] != version || !key.equals(keys[index])) return null;
+        return (V) values[index];
+    }
+
+    // Whatever was in the slot is simply overwritten, that's the whole eviction policy
+    public void put(int hash, K key, V value, long version) {
+        int index = hash & mask;
+        keys[index] = key;
+        values[index] = value;
+        versions[index] = version;
+    }
+
+    public boolean isOwnedBy(Thread thread) {
+        return owner == thread;
+    }
+}
+
+/*
+    Two level cache: a small L1 per thread in front of the shared L2 (usually a CacheImpl).
+    - An L1 hit touches no shared state apart from reading one version stamp, so hot keys stop hammering the shared map
+    - Every put or delete bumps the version stamp of the key's stripe after updating L2. An L1 entry keeps the stamp it was
+      filled under and is only served while that stamp is unchanged, so a reader never gets a value older than the last
+      write it has seen complete
+    - The stamp is read before L2 on a fill, so a write that races with the fill can only make the entry look older than it is
+    Java doesn't tell a thread which core it runs on, so the L1 is per thread instead of per core.
+    ThreadLocal.get() costs a probe into the thread's map on every read, so each table is also kept in a slot picked by
+    thread id. A read checks that the slot's table is its own and only falls back to the ThreadLocal when another thread
+    took the slot. A slot keeps the table of a finished thread alive until some other thread takes it.
+ */
+class TieredCache <K,V> implements Cache <K,V> {
+    private static final int STRIPES = 1024;
+    // Stamps are 8 longs apart so that a write to one stripe doesn't invalidate the cache line of its neighbours
+    private static final int STRIPE_PADDING = 8;
+    private static final int THREAD_SLOTS = 64;
+    private final Cache <K,V> l2;
+    private final AtomicLongArray stripeVersions = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+    private final ThreadLocal <L1Table <K,V>> l1;
+    private final L1Table <K,V> [] tablesByThread;
+
+    public TieredCache(Cache <K,V> l2, int l1Size) {
+        if (l2 == null || l1Size <= 0 || Integer.bitCount(l1Size) != 1) throw new IllegalArgumentException("Invalid argument(s) passed for tiered cache");
+        this.l2 = l2;
+        this.l1 = ThreadLocal.withInitial(() -> new L1Table<>(l1Size));
+        @SuppressWarnings("unchecked")
+        L1Table <K,V> [] tables = (L1Table <K,V> []) new L1Table<?, ?>[THREAD_SLOTS];
+        this.tablesByThread = tables;
+    }
+
+    @Override
+    public V getByKey(K key) {
+        int hash = spread(key.hashCode());
+        long version = stripeVersions.get(getStripeIndex(hash));
+        L1Table <K,V> table = getL1Table();
+        V value = table.get(hash, key, version);
+        if (value != null) return value;
+
+        value = l2.getByKey(key);
+        if (value != null) table.put(hash, key, value, version);
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        l2.put(key, value);
+        stripeVersions.incrementAndGet(getStripeIndex(spread(key.hashCode())));
+    }
+
+    @Override
+    public void delete(K key) {
+        l2.delete(key);
+        stripeVersions.incrementAndGet(getStripeIndex(spread(key.hashCode())));
+    }
+
+    // Plain array accesses are enough, a table's fields are final and a thread only ever uses a table it owns
+    private L1Table <K,V> getL1Table() {
+        Thread current = Thread.currentThread();
+        int slot = (int) current.getId() & (THREAD_SLOTS - 1);
+        L1Table <K,V> table = tablesByThread[slot];
+        if (table != null && table.isOwnedBy(current)) return table;
+        table = l1.get();
+        tablesByThread[slot] = table;
+        return table;
+    }
+
+    private int getStripeIndex(int hash) {
+        return ((hash >>> 16) & (STRIPES - 1)) * STRIPE_PADDING;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
+
 interface Database <K,V> {
     public void put(K key, V value);
     public V getByKey(K key);
@@ -37,7 +152,7 @@ class DatabaseImpl <K,V> implements Database <K,V> {
     private final Map <K, V> keyValueMappings = new ConcurrentHashMap<>();
 
     @Override
-    public void write(K key, V value) {
+    public void put(K key, V value) {
         try {
             Thread.sleep(100);
             keyValueMappings.put(key, value);
@@ -55,6 +170,7 @@ class DatabaseImpl <K,V> implements Database <K,V> {
         }
         catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
+            return null;
         }
     }
 
@@ -64,15 +180,15 @@ class DatabaseImpl <K,V> implements Database <K,V> {
     }
 }
 
-interface WriteStrategy {
-    public void write(Cache cache, Database database, K key, V value);
+interface WriteStrategy <K,V> {
+    public void write(Cache <K,V> cache, Database <K,V> database, K key, V value);
 }
 
-class WriteThroughStrategy implements WriteStrategy {
+class WriteThroughStrategy <K,V> implements WriteStrategy <K,V> {
     @Override
-    public void write(Cache cache, Database database, K key, V value) {
-        CompletableFuture <Void> cacheWrite = cache.put(key, value);
-        CompletableFuture <Void> databaseWrite = database.put(key, value);
+    public void write(Cache <K,V> cache, Database <K,V> database, K key, V value) {
+        CompletableFuture <Void> cacheWrite = CompletableFuture.runAsync(() -> cache.put(key, value));
+        CompletableFuture <Void> databaseWrite = CompletableFuture.runAsync(() -> database.put(key, value));
         CompletableFuture.allOf(cacheWrite, databaseWrite).join();
     }
 }
@@ -85,8 +201,8 @@ interface EvictionStrategy <K,V> {
 class DLLNode <K,V> {
     private final K key;
     private final V value;
-    private DLLNode next;
-    private DLLNode prev;
+    private DLLNode <K,V> next;
+    private DLLNode <K,V> prev;
 
     public DLLNode(K key, V value) {
         this.key = key;
@@ -101,45 +217,45 @@ class DLLNode <K,V> {
         return value;
     }
 
-    public void setNext(DLLNode next) {
+    public void setNext(DLLNode <K,V> next) {
         this.next = next;
     }
 
-    public void setPrev(DLLNode prev) {
+    public void setPrev(DLLNode <K,V> prev) {
         this.prev = prev;
     }
 
-    public DLLNode getNext() {
+    public DLLNode <K,V> getNext() {
         return next;
     }
 
-    public DLLNode getPrev() {
+    public DLLNode <K,V> getPrev() {
         return prev;
     }
 }
 
-class DLL {
-    private final DLLNode head = new DLLNode(null, null);
-    private final DLLNode tail = new DLLNode(null, null);
+class DLL <K,V> {
+    private final DLLNode <K,V> head = new DLLNode<>(null, null);
+    private final DLLNode <K,V> tail = new DLLNode<>(null, null);
 
     public DLL() {
         head.setNext(tail);
         tail.setPrev(head);
     }
 
-    public void addFront(DLLNode node) {
+    public void addFront(DLLNode <K,V> node) {
         if (node == null) throw new IllegalArgumentException("Node to be added cannot be null");
-        DLLNode headNext = head.getNext();
+        DLLNode <K,V> headNext = head.getNext();
         head.setNext(node);
         node.setPrev(head);
         node.setNext(headNext);
         headNext.setPrev(node);
     }
 
-    public void removeNode(DLLNode node) {
+    public void removeNode(DLLNode <K,V> node) {
         if (node == null) throw new IllegalArgumentException("Node to be deleted cannot be null");
-        DLLNode nodePrev = node.getPrev();
-        DLLNode nodeNext = node.getNext();
+        DLLNode <K,V> nodePrev = node.getPrev();
+        DLLNode <K,V> nodeNext = node.getNext();
         nodePrev.setNext(nodeNext);
         nodeNext.setPrev(nodePrev);
     }
@@ -148,44 +264,49 @@ class DLL {
         return head.getNext() == tail && tail.getPrev() == head;
     }
 
-    public DLLNode getTailPredecessor() {
+    public DLLNode <K,V> getTailPredecessor() {
         return tail.getPrev();
     }
 }
 
 class LRUEvictionStrategy <K,V> implements EvictionStrategy <K,V> {
-    private final DLL dll = new DLL();
-    private final Map <K, DLLNode> keyToNodeMappings = new ConcurrentHashMap<>();
+    private final DLL <K,V> dll = new DLL<>();
+    private final Map <K, DLLNode <K,V>> keyToNodeMappings = new ConcurrentHashMap<>();
 
     @Override
     public synchronized void accessed(K key, V value) {
-        DLLNode node = keyToNodeMappings.get(key);
+        DLLNode <K,V> node = keyToNodeMappings.get(key);
         if (node != null) {
             dll.removeNode(node);
-            dll.addFront(node);
         }
+        else {
+            node = new DLLNode<>(key, value);
+            keyToNodeMappings.put(key, node);
+        }
+        dll.addFront(node);
     }
 
     @Override
     public synchronized K evict() {
         if (dll.isEmpty()) return null;
-        DLLNode tailPredecessor = dll.getTailPredecessor();
+        DLLNode <K,V> tailPredecessor = dll.getTailPredecessor();
         dll.removeNode(tailPredecessor);
+        keyToNodeMappings.remove(tailPredecessor.getKey());
         return tailPredecessor.getKey();
     }
 }
 
 class CacheController <K,V> {
-    private final Cache cache;
-    private final Database database;
-    private EvictionStrategy evictionStrategy;
-    private WriteStrategy writeStrategy;
+    private final Cache <K,V> cache;
+    private final Database <K,V> database;
+    private EvictionStrategy <K,V> evictionStrategy;
+    private WriteStrategy <K,V> writeStrategy;
     private final int THREAD_POOL_SIZE = 10;
-    private final AtomicInteger currentSize = 0;
-    private final Map <K, ExecutorService> keyToExecutorMapping;
+    private final AtomicInteger currentSize = new AtomicInteger(0);
+    private final Map <Integer, ExecutorService> keyToExecutorMapping;
     private final long capacity;
 
-    public CacheController(Cache cache, Database database, EvictionStrategy evictionStrategy, WriteStrategy writeStrategy, long capacity) {
+    public CacheController(Cache <K,V> cache, Database <K,V> database, EvictionStrategy <K,V> evictionStrategy, WriteStrategy <K,V> writeStrategy, long capacity) {
         if (cache == null || database == null || evictionStrategy == null || writeStrategy == null) throw new IllegalArgumentException("Invalid argument(s) passed for cache controller");
         this.cache = cache;
         this.database = database;
@@ -263,17 +384,172 @@ class CacheController <K,V> {
         }
         catch (InterruptedException ex) {
             // maybe print some logs
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException ex) {
             return null;
         }
     }
+
+    public void shutdown() {
+        for (ExecutorService executor : keyToExecutorMapping.values()) executor.shutdown();
+    }
 }
 
 
 public class Main {
-    public static void main(String [] args) {
+    public static void main(String [] args) throws InterruptedException {
+        // Writes through the controller have to invalidate the L1 of the slot thread that serves the reads
+        System.out.println("Test 1: Controller Reads See Every Write");
+        System.out.println("----------------------------------------");
+        TieredCache <String, String> controllerCache = new TieredCache<>(new CacheImpl<>(), 64);
+        CacheController <String, String> controller = new CacheController<>(controllerCache, new DatabaseImpl<>(), new LRUEvictionStrategy<>(), new WriteThroughStrategy<>(), 100);
+        controller.write("user", "v1");
+        String first = controller.getByKey("user");
+        controller.write("user", "v2");
+        String second = controller.getByKey("user");
+        System.out.println("Controller reads after two writes: " + first + ", " + second);
+        System.out.println("v1".equals(first) && "v2".equals(second) ? "✅ PASS\n" : "❌ FAIL\n");
+        controller.shutdown();
+
+        // A reader thread keeps the key in its L1, a write from another thread must still reach it
+        System.out.println("Test 2: Another Thread's L1 Sees a Completed Write");
+        System.out.println("--------------------------------------------------");
+        TieredCache <Integer, String> sharedCache = new TieredCache<>(new CacheImpl<>(), 64);
+        sharedCache.put(1, "old");
+        BlockingQueue <String> readerRequests = new LinkedBlockingQueue<>();
+        BlockingQueue <String> readerResults = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!readerRequests.take().equals("stop")) readerResults.put(sharedCache.getByKey(1));
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+        readerRequests.put("read");
+        String beforeWrite = readerResults.take();
+        sharedCache.put(1, "new");
+        readerRequests.put("read");
+        String afterWrite = readerResults.take();
+        readerRequests.put("stop");
+        reader.join();
+        System.out.println("Other thread reads before / after the write: " + beforeWrite + " / " + afterWrite);
+        System.out.println("old".equals(beforeWrite) && "new".equals(afterWrite) ? "✅ PASS\n" : "❌ FAIL\n");
+
+        // Skewed reads with 1% writes, L2 alone vs L1 + L2
+        System.out.println("Test 3: Shared Map Reads Under a Zipfian Workload");
+        System.out.println("-------------------------------------------------");
+        int keys = 10_000;
+        int [] trace = zipfianTrace(1 << 20, keys, 1.0, 42);
+        String [] modes = {"L2 only", "L1 + L2"};
+        Map <String, Long> bestOperations = new LinkedHashMap<>();
+        for (int round = 0; round < 6; round++) { // The first 2 rounds only warm up the JIT, then best of 4
+            for (String mode : modes) {
+                long operations = runSkewedWorkload(newWorkloadCache(mode, new CacheImpl<>(), keys), trace, 4, 300);
+                if (round >= 2) bestOperations.merge(mode, operations, Math::max);
+            }
+        }
+        // Counted separately, the counter would otherwise slow down every read of the L2 only run
+        Map <String, Double> sharedReadShare = new HashMap<>();
+        for (String mode : modes) {
+            CountingCache <Integer, String> l2 = new CountingCache<>(new CacheImpl<>());
+            Cache <Integer, String> cache = newWorkloadCache(mode, l2, keys);
+            l2.resetReads();
+            long operations = runSkewedWorkload(cache, trace, 4, 300);
+            sharedReadShare.put(mode, 100.0 * l2.getReads() / operations);
+        }
+        for (String mode : modes) {
+            System.out.printf("%s: %d ops/ms, shared map reads: %.1f%% of operations%n", mode, bestOperations.get(mode) / 300, sharedReadShare.get(mode));
+        }
+        // With one core there are no cache lines to bounce between cores, so the L1 lookup is pure extra work in front of the
+        // shared map, and the reads that miss it are the ones for colder keys. It costs about 40% of the throughput there
+        // and may not cost more than 55%. The shared map reads it saves show its benefit anywhere
+        double throughputRatio = (double) bestOperations.get("L1 + L2") / bestOperations.get("L2 only");
+        System.out.printf("L1 + L2 throughput: %.2fx of L2 only, allowed down to 0.45x%n", throughputRatio);
+        System.out.println(sharedReadShare.get("L1 + L2") < sharedReadShare.get("L2 only") / 2 && throughputRatio >= 0.45 ? "✅ PASS\n" : "❌ FAIL\n");
+    }
+
+    // Fills l2 with every key, behind a TieredCache unless mode is "L2 only"
+    private static Cache <Integer, String> newWorkloadCache(String mode, Cache <Integer, String> l2, int keys) {
+        Cache <Integer, String> cache = mode.equals("L2 only") ? l2 : new TieredCache<>(l2, 4096);
+        for (int key = 0; key < keys; key++) cache.put(key, "V" + key);
+        return cache;
+    }
 
+    // Each thread replays the trace from its own offset, every 100th operation is a write
+    private static long runSkewedWorkload(Cache <Integer, String> cache, int [] trace, int threads, long durationMs) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        Thread [] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t * (trace.length / threads);
+            workers[t] = new Thread(() -> {
+                int position = offset;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 1000; i++, position++) {
+                        int key = trace[position & (trace.length - 1)];
+                        if (position % 100 == 0) cache.put(key, "W" + key);
+                        else cache.getByKey(key);
+                    }
+                    operations.add(1000);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        return operations.sum();
+    }
 
+    private static int [] zipfianTrace(int length, int items, double skew, long seed) {
+        double [] cdf = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        int [] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+        return trace;
+    }
+
+    // Counts the reads that reach the shared map
+    private static class CountingCache <K,V> implements Cache <K,V> {
+        private final Cache <K,V> delegate;
+        private final LongAdder reads = new LongAdder();
 
+        public CountingCache(Cache <K,V> delegate) {
+            this.delegate = delegate;
+        }
 
+        @Override
+        public V getByKey(K key) {
+            reads.increment();
+            return delegate.getByKey(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public void delete(K key) {
+            delegate.delete(key);
+        }
+
+        public long getReads() {
+            return reads.sum();
+        }
+
+        public void resetReads() {
+            reads.reset();
+        }
     }
 }
\ No newline at end of file